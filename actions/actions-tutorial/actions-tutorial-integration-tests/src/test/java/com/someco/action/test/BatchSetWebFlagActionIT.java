@@ -0,0 +1,248 @@
+package com.someco.action.test;
+
+import com.someco.action.executer.BatchSetWebFlag;
+import com.someco.action.executer.SetWebFlag;
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AbstractAlfrescoIT;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.action.executer.ActionExecuter;
+import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.workflow.WorkflowModel;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ActionService;
+import org.alfresco.service.cmr.lock.LockService;
+import org.alfresco.service.cmr.lock.LockType;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(value = AlfrescoTestRunner.class)
+public class BatchSetWebFlagActionIT extends AbstractAlfrescoIT {
+
+    private static final int CHILD_COUNT = 120;
+
+    private static final QName PROP_IS_ACTIVE = QName.createQName("http://www.someco.com/model/content/1.0", "isActive");
+
+    static Logger log = Logger.getLogger(BatchSetWebFlagActionIT.class);
+
+    @Test
+    public void testGetAction() {
+        ActionService actionService = getServiceRegistry().getActionService();
+        Action action = actionService.createAction(BatchSetWebFlag.NAME);
+        Assert.assertNotNull(action);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionOnFolder() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final ActionService actionService = getServiceRegistry().getActionService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+
+        // the batches run in transactions of their own, so the nodes must be committed first
+        final List<NodeRef> children = new ArrayList<NodeRef>();
+        final NodeRef folder = txnHelper.doInTransaction(() -> {
+            NodeRef companyHome = getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null);
+            NodeRef folderRef = createNode(nodeService, companyHome, "Batch Set Web Flag Action Test (" + System.currentTimeMillis() + ")", ContentModel.TYPE_FOLDER);
+            for (int i = 0; i < CHILD_COUNT; i++) {
+                children.add(createNode(nodeService, folderRef, "whitepaper-" + i + ".txt", ContentModel.TYPE_CONTENT));
+            }
+            return folderRef;
+        }, false, true);
+
+        try {
+            Action action = actionService.createAction(BatchSetWebFlag.NAME);
+            action.setParameterValue(SetWebFlag.PARAM_ACTIVE, true);
+            actionService.executeAction(action, folder);
+
+            Map<NodeRef, String> outcomes = (Map<NodeRef, String>)action.getParameterValue(ActionExecuter.PARAM_RESULT);
+            Assert.assertEquals(CHILD_COUNT, outcomes.size());
+
+            txnHelper.doInTransaction(() -> {
+                for (NodeRef child : children) {
+                    Assert.assertEquals(BatchSetWebFlag.OUTCOME_OK, outcomes.get(child));
+                    Assert.assertEquals(Boolean.TRUE, nodeService.getProperty(child, PROP_IS_ACTIVE));
+                }
+                return null;
+            }, true, true);
+        } finally {
+            txnHelper.doInTransaction(() -> {
+                nodeService.deleteNode(folder);
+                return null;
+            }, false, true);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionOnWorkflowPackage() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final ActionService actionService = getServiceRegistry().getActionService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+
+        // publishWhitepaper runs the action on bpm_package, whose children are
+        // linked in with bpm:packageContains rather than cm:contains
+        final List<NodeRef> children = new ArrayList<NodeRef>();
+        final NodeRef folder = txnHelper.doInTransaction(() -> createFolder(nodeService, "Batch Set Web Flag Package Test", 3, children), false, true);
+        final NodeRef workflowPackage = txnHelper.doInTransaction(() -> {
+            NodeRef packageRef = getServiceRegistry().getWorkflowService().createPackage(null);
+            for (NodeRef child : children) {
+                nodeService.addChild(packageRef, child, WorkflowModel.ASSOC_PACKAGE_CONTAINS,
+                        nodeService.getPrimaryParent(child).getQName());
+            }
+            return packageRef;
+        }, false, true);
+
+        try {
+            Action action = actionService.createAction(BatchSetWebFlag.NAME);
+            action.setParameterValue(SetWebFlag.PARAM_ACTIVE, true);
+            actionService.executeAction(action, workflowPackage);
+
+            Map<NodeRef, String> outcomes = (Map<NodeRef, String>)action.getParameterValue(ActionExecuter.PARAM_RESULT);
+            Assert.assertEquals(children.size(), outcomes.size());
+
+            txnHelper.doInTransaction(() -> {
+                for (NodeRef child : children) {
+                    Assert.assertEquals(BatchSetWebFlag.OUTCOME_OK, outcomes.get(child));
+                    Assert.assertEquals(Boolean.TRUE, nodeService.getProperty(child, PROP_IS_ACTIVE));
+                }
+                return null;
+            }, true, true);
+        } finally {
+            txnHelper.doInTransaction(() -> {
+                nodeService.deleteNode(workflowPackage);
+                nodeService.deleteNode(folder);
+                return null;
+            }, false, true);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionOnNodesList() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final ActionService actionService = getServiceRegistry().getActionService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+
+        final List<NodeRef> children = new ArrayList<NodeRef>();
+        final NodeRef folder = txnHelper.doInTransaction(() -> createFolder(nodeService, "Batch Set Web Flag Nodes Test", 4, children), false, true);
+        final List<NodeRef> listed = new ArrayList<NodeRef>(children.subList(0, 2));
+
+        try {
+            // the nodes parameter wins over the folder the action runs on
+            Action action = actionService.createAction(BatchSetWebFlag.NAME);
+            action.setParameterValue(SetWebFlag.PARAM_ACTIVE, true);
+            action.setParameterValue(BatchSetWebFlag.PARAM_NODES, (Serializable)listed);
+            actionService.executeAction(action, folder);
+
+            Map<NodeRef, String> outcomes = (Map<NodeRef, String>)action.getParameterValue(ActionExecuter.PARAM_RESULT);
+            Assert.assertEquals(listed.size(), outcomes.size());
+
+            txnHelper.doInTransaction(() -> {
+                for (NodeRef child : children) {
+                    if (listed.contains(child)) {
+                        Assert.assertEquals(BatchSetWebFlag.OUTCOME_OK, outcomes.get(child));
+                        Assert.assertEquals(Boolean.TRUE, nodeService.getProperty(child, PROP_IS_ACTIVE));
+                    } else {
+                        Assert.assertNull(nodeService.getProperty(child, PROP_IS_ACTIVE));
+                    }
+                }
+                return null;
+            }, true, true);
+        } finally {
+            txnHelper.doInTransaction(() -> {
+                nodeService.deleteNode(folder);
+                return null;
+            }, false, true);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPerNodeOutcomes() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final ActionService actionService = getServiceRegistry().getActionService();
+        final LockService lockService = getServiceRegistry().getLockService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+
+        final List<NodeRef> children = new ArrayList<NodeRef>();
+        final NodeRef folder = txnHelper.doInTransaction(() -> createFolder(nodeService, "Batch Set Web Flag Outcomes Test", 3, children), false, true);
+        final NodeRef open = children.get(0);
+        final NodeRef locked = children.get(1);
+        final NodeRef deleted = children.get(2);
+
+        txnHelper.doInTransaction(() -> {
+            // locked by someone else, so setting the flag fails
+            AuthenticationUtil.runAsSystem(() -> {
+                lockService.lock(locked, LockType.WRITE_LOCK);
+                return null;
+            });
+            nodeService.deleteNode(deleted);
+            return null;
+        }, false, true);
+
+        try {
+            Action action = actionService.createAction(BatchSetWebFlag.NAME);
+            action.setParameterValue(SetWebFlag.PARAM_ACTIVE, true);
+            action.setParameterValue(BatchSetWebFlag.PARAM_NODES, new ArrayList<NodeRef>(children));
+            actionService.executeAction(action, null);
+
+            Map<NodeRef, String> outcomes = (Map<NodeRef, String>)action.getParameterValue(ActionExecuter.PARAM_RESULT);
+            Assert.assertEquals(children.size(), outcomes.size());
+            Assert.assertEquals(BatchSetWebFlag.OUTCOME_OK, outcomes.get(open));
+            Assert.assertEquals("Node does not exist", outcomes.get(deleted));
+            Assert.assertNotNull(outcomes.get(locked));
+            Assert.assertNotEquals(BatchSetWebFlag.OUTCOME_OK, outcomes.get(locked));
+
+            // one failed node does not cost the others their change
+            txnHelper.doInTransaction(() -> {
+                Assert.assertEquals(Boolean.TRUE, nodeService.getProperty(open, PROP_IS_ACTIVE));
+                Assert.assertNull(nodeService.getProperty(locked, PROP_IS_ACTIVE));
+                return null;
+            }, true, true);
+        } finally {
+            txnHelper.doInTransaction(() -> {
+                AuthenticationUtil.runAsSystem(() -> {
+                    lockService.unlock(locked);
+                    return null;
+                });
+                nodeService.deleteNode(folder);
+                return null;
+            }, false, true);
+        }
+    }
+
+    /**
+     * Creates a folder in Company Home with count content children, which
+     * are added to children.
+     */
+    private NodeRef createFolder(NodeService nodeService, String label, int count, List<NodeRef> children) {
+        NodeRef companyHome = getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null);
+        NodeRef folderRef = createNode(nodeService, companyHome, label + " (" + System.currentTimeMillis() + ")", ContentModel.TYPE_FOLDER);
+        for (int i = 0; i < count; i++) {
+            children.add(createNode(nodeService, folderRef, "whitepaper-" + i + ".txt", ContentModel.TYPE_CONTENT));
+        }
+        return folderRef;
+    }
+
+    private static NodeRef createNode(NodeService nodeService, NodeRef parent, String name, QName type) {
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(ContentModel.PROP_NAME, name);
+        return nodeService.createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                type, props).getChildRef();
+    }
+}
@@ -1,11 +1,13 @@
 package com.someco.action.test;
 
+import com.someco.action.executer.MoveReplacedActionExecuter;
 import org.alfresco.model.ContentModel;
 import org.alfresco.rad.test.AbstractAlfrescoIT;
 import org.alfresco.rad.test.AlfrescoTestRunner;
 import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
 import org.alfresco.repo.nodelocator.NodeLocatorService;
 import org.alfresco.repo.nodelocator.UserHomeNodeLocator;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.service.cmr.action.Action;
 import org.alfresco.service.cmr.action.ActionService;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
@@ -19,7 +21,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RunWith(value = AlfrescoTestRunner.class)
@@ -69,4 +73,84 @@ public class MoveReplacedActionIT extends AbstractAlfrescoIT {
         nodeService.deleteNode(content);
     }
 
+    @Test
+    public void testMoveBelowBulkThreshold() throws InterruptedException {
+        MoveReplacedActionExecuter executer = (MoveReplacedActionExecuter)getApplicationContext().getBean("move-replaced");
+        // moved in the rule's transaction
+        assertMovesTargets(executer, executer.getBulkThreshold() - 1);
+    }
+
+    @Test
+    public void testMoveAboveBulkThreshold() throws InterruptedException {
+        MoveReplacedActionExecuter executer = (MoveReplacedActionExecuter)getApplicationContext().getBean("move-replaced");
+        // moved in the background after the rule's transaction commits
+        assertMovesTargets(executer, executer.getBulkThreshold() + 1);
+    }
+
+    private void assertMovesTargets(MoveReplacedActionExecuter executer, final int targetCount) throws InterruptedException {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final ActionService actionService = getServiceRegistry().getActionService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+
+        final String name = "Move Replaced Bulk Test (" + System.currentTimeMillis() + ")";
+        final NodeRef source = txnHelper.doInTransaction(() -> createNode(getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null),
+                name + " source", ContentModel.TYPE_FOLDER), false, true);
+        final NodeRef destination = txnHelper.doInTransaction(() -> createNode(getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null),
+                name + " destination", ContentModel.TYPE_FOLDER), false, true);
+
+        try {
+            final List<NodeRef> targets = txnHelper.doInTransaction(() -> {
+                List<NodeRef> created = new ArrayList<NodeRef>(targetCount);
+                for (int i = 0; i < targetCount; i++) {
+                    created.add(createNode(source, "target " + i, ContentModel.TYPE_CONTENT));
+                }
+                return created;
+            }, false, true);
+
+            final NodeRef replacing = txnHelper.doInTransaction(() -> {
+                NodeRef node = createNode(source, "replacing", ContentModel.TYPE_CONTENT);
+                nodeService.addAspect(node, ContentModel.ASPECT_REPLACEABLE, null);
+                for (NodeRef target : targets) {
+                    nodeService.createAssociation(node, target, ContentModel.ASSOC_REPLACES);
+                }
+                return node;
+            }, false, true);
+
+            long movedBefore = executer.getMovedCount();
+            txnHelper.doInTransaction(() -> {
+                Action action = actionService.createAction("move-replaced");
+                action.setParameterValue("destination-folder", destination);
+                actionService.executeAction(action, replacing);
+                return null;
+            }, false, true);
+
+            long deadline = System.currentTimeMillis() + 30000;
+            while (executer.getPendingBulkMoves() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+
+            Assert.assertEquals(movedBefore + targetCount, executer.getMovedCount());
+            txnHelper.doInTransaction(() -> {
+                for (NodeRef target : targets) {
+                    Assert.assertEquals(destination, nodeService.getPrimaryParent(target).getParentRef());
+                }
+                return null;
+            }, true, true);
+        } finally {
+            txnHelper.doInTransaction(() -> {
+                nodeService.deleteNode(source);
+                nodeService.deleteNode(destination);
+                return null;
+            }, false, true);
+        }
+    }
+
+    private NodeRef createNode(NodeRef parent, String name, QName type) {
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(ContentModel.PROP_NAME, name);
+        return getServiceRegistry().getNodeService().createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                type, props).getChildRef();
+    }
+
 }
@@ -0,0 +1,231 @@
+package com.someco.action.test;
+
+import com.someco.action.OrderedActionQueue;
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AbstractAlfrescoIT;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.action.RuntimeActionService;
+import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ActionService;
+import org.alfresco.service.cmr.action.ActionStatus;
+import org.alfresco.service.cmr.action.ActionTrackingService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(value = AlfrescoTestRunner.class)
+public class OrderedActionQueueIT extends AbstractAlfrescoIT {
+
+    private static final String NAMESPACE = "http://www.someco.com/model/content/1.0";
+    private static final QName PROP_IS_ACTIVE = QName.createQName(NAMESPACE, "isActive");
+    private static final QName PROP_PUBLISHED = QName.createQName(NAMESPACE, "published");
+
+    private static final long WAIT = 30000;
+
+    static Logger log = Logger.getLogger(OrderedActionQueueIT.class);
+
+    @Test
+    public void testLastQueuedFlagWins() throws InterruptedException {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final ActionService actionService = getServiceRegistry().getActionService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+        OrderedActionQueue queue = (OrderedActionQueue)getApplicationContext().getBean("actions-tutorial-platform_actionQueue");
+
+        final NodeRef content = txnHelper.doInTransaction(
+                () -> createNode(getCompanyHome(), "Ordered Action Queue Test", ContentModel.TYPE_CONTENT), false, true);
+        final Action enable = actionService.createAction("enable-web-flag");
+        final Action disable = actionService.createAction("disable-web-flag");
+        long coalescedBefore = queue.getCoalescedCount();
+
+        try {
+            // both are queued when this transaction commits
+            txnHelper.doInTransaction(() -> {
+                actionService.executeAction(enable, content, true, true);
+                actionService.executeAction(disable, content, true, true);
+                return null;
+            }, false, true);
+
+            long deadline = System.currentTimeMillis() + WAIT;
+            while ((!Boolean.FALSE.equals(getProperty(content, PROP_IS_ACTIVE)) || enable.getExecutionStatus() == ActionStatus.Pending)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+
+            Assert.assertEquals(Boolean.FALSE, getProperty(content, PROP_IS_ACTIVE));
+            // enabling would have stamped the publication date
+            Assert.assertNull("The superseded enable must not have run", getProperty(content, PROP_PUBLISHED));
+            Assert.assertTrue(queue.getCoalescedCount() > coalescedBefore);
+            Assert.assertEquals("The superseded enable must not stay pending", ActionStatus.Failed, enable.getExecutionStatus());
+        } finally {
+            deleteNodes(content);
+        }
+    }
+
+    @Test
+    public void testPerFolderOrdering() throws InterruptedException {
+        int folders = 3;
+        int perFolder = 5;
+        OrderedActionQueue queue = createQueue(2, 100);
+
+        List<NodeRef> created = new ArrayList<NodeRef>();
+        try {
+            final List<List<NodeRef>> lanes = new ArrayList<List<NodeRef>>();
+            for (int i = 0; i < folders; i++) {
+                NodeRef folder = getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(
+                        () -> createNode(getCompanyHome(), "Ordered Action Queue Folder", ContentModel.TYPE_FOLDER), false, true);
+                created.add(folder);
+                lanes.add(createChildren(folder, perFolder));
+            }
+
+            // the folders are interleaved so they compete for the threads
+            List<NodeRef> queued = new ArrayList<NodeRef>();
+            for (int j = 0; j < perFolder; j++) {
+                for (List<NodeRef> lane : lanes) {
+                    queued.add(lane.get(j));
+                }
+            }
+            enableAll(queue, queued);
+
+            // each action commits its own transaction, so within a folder
+            // the transaction ids must follow the order they were queued in
+            for (List<NodeRef> lane : lanes) {
+                long previous = -1;
+                for (NodeRef nodeRef : lane) {
+                    long txnId = getTxnId(nodeRef);
+                    Assert.assertTrue("Actions for one folder ran out of order", txnId > previous);
+                    previous = txnId;
+                }
+            }
+        } finally {
+            queue.destroy();
+            deleteNodes(created.toArray(new NodeRef[created.size()]));
+        }
+    }
+
+    @Test
+    public void testMaxPerTurnHandOff() throws InterruptedException {
+        // one thread and two actions per turn
+        OrderedActionQueue queue = createQueue(1, 2);
+
+        List<NodeRef> created = new ArrayList<NodeRef>();
+        try {
+            RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+            NodeRef busy = txnHelper.doInTransaction(
+                    () -> createNode(getCompanyHome(), "Ordered Action Queue Busy Folder", ContentModel.TYPE_FOLDER), false, true);
+            created.add(busy);
+            NodeRef quiet = txnHelper.doInTransaction(
+                    () -> createNode(getCompanyHome(), "Ordered Action Queue Quiet Folder", ContentModel.TYPE_FOLDER), false, true);
+            created.add(quiet);
+
+            List<NodeRef> busyNodes = createChildren(busy, 5);
+            NodeRef quietNode = createChildren(quiet, 1).get(0);
+
+            List<NodeRef> queued = new ArrayList<NodeRef>(busyNodes);
+            queued.add(quietNode);
+            enableAll(queue, queued);
+
+            // the busy folder gives up the only thread after two actions, the
+            // quiet one runs, then the busy one carries on
+            long quietTxnId = getTxnId(quietNode);
+            Assert.assertTrue(getTxnId(busyNodes.get(1)) < quietTxnId);
+            Assert.assertTrue(quietTxnId < getTxnId(busyNodes.get(2)));
+        } finally {
+            queue.destroy();
+            deleteNodes(created.toArray(new NodeRef[created.size()]));
+        }
+    }
+
+    /**
+     * Creates a queue of its own for a test, so its thread count and turns
+     * are known and no other actions run on it.
+     */
+    private OrderedActionQueue createQueue(int threadCount, int maxPerTurn) {
+        OrderedActionQueue queue = new OrderedActionQueue();
+        queue.setActionService((RuntimeActionService)getApplicationContext().getBean("actionService"));
+        queue.setActionTrackingService((ActionTrackingService)getApplicationContext().getBean("actionTrackingService"));
+        queue.setNodeService(getServiceRegistry().getNodeService());
+        queue.setTransactionService(getServiceRegistry().getTransactionService());
+        queue.setId("someco-test-" + System.currentTimeMillis());
+        queue.setThreadCount(threadCount);
+        queue.setMaxPerTurn(maxPerTurn);
+        queue.init();
+        return queue;
+    }
+
+    /**
+     * Queues enable-web-flag for the nodes, in order and in one transaction,
+     * and waits until they are all active.
+     */
+    private void enableAll(final OrderedActionQueue queue, final List<NodeRef> nodeRefs) throws InterruptedException {
+        final RuntimeActionService actionService = (RuntimeActionService)getApplicationContext().getBean("actionService");
+        getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(() -> {
+            for (NodeRef nodeRef : nodeRefs) {
+                queue.executeAction(actionService, actionService.createAction("enable-web-flag"), nodeRef, false, null);
+            }
+            return null;
+        }, false, true);
+
+        long deadline = System.currentTimeMillis() + WAIT;
+        for (NodeRef nodeRef : nodeRefs) {
+            while (!Boolean.TRUE.equals(getProperty(nodeRef, PROP_IS_ACTIVE)) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(Boolean.TRUE, getProperty(nodeRef, PROP_IS_ACTIVE));
+        }
+    }
+
+    private List<NodeRef> createChildren(final NodeRef folder, final int count) {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(() -> {
+            List<NodeRef> children = new ArrayList<NodeRef>(count);
+            for (int i = 0; i < count; i++) {
+                children.add(createNode(folder, "Ordered Action Queue Test " + i, ContentModel.TYPE_CONTENT));
+            }
+            return children;
+        }, false, true);
+    }
+
+    private NodeRef createNode(NodeRef parent, String label, QName type) {
+        String name = label + " (" + System.nanoTime() + ")";
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(ContentModel.PROP_NAME, name);
+        return getServiceRegistry().getNodeService().createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                type, props).getChildRef();
+    }
+
+    private NodeRef getCompanyHome() {
+        return getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null);
+    }
+
+    private Serializable getProperty(final NodeRef nodeRef, final QName propName) {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(
+                () -> getServiceRegistry().getNodeService().getProperty(nodeRef, propName), true, true);
+    }
+
+    private long getTxnId(final NodeRef nodeRef) {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(
+                () -> getServiceRegistry().getNodeService().getNodeStatus(nodeRef).getDbTxnId(), true, true);
+    }
+
+    private void deleteNodes(final NodeRef... nodeRefs) {
+        getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(() -> {
+            for (NodeRef nodeRef : nodeRefs) {
+                getServiceRegistry().getNodeService().deleteNode(nodeRef);
+            }
+            return null;
+        }, false, true);
+    }
+}
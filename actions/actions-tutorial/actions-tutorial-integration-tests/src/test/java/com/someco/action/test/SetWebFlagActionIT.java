@@ -67,4 +67,38 @@ public class SetWebFlagActionIT extends AbstractAlfrescoIT {
 
     	nodeService.deleteNode(content);
     }
+
+    @Test
+    public void testExecuteActionTwiceWritesOnce() {
+        NodeService nodeService = getServiceRegistry().getNodeService();
+        ActionService actionService = getServiceRegistry().getActionService();
+        NodeLocatorService nodeLocatorService = getServiceRegistry().getNodeLocatorService();
+
+        NodeRef companyHome = nodeLocatorService.getNode(CompanyHomeNodeLocator.NAME, null, null);
+
+        String name = "Set Web Flag Twice Test (" + System.currentTimeMillis() + ")";
+        Map<QName, Serializable> contentProps = new HashMap<QName, Serializable>();
+        contentProps.put(ContentModel.PROP_NAME, name);
+        NodeRef content = nodeService.createNode(
+                        companyHome,
+                        ContentModel.ASSOC_CONTAINS,
+                        QName.createQName(NamespaceService.CONTENT_MODEL_PREFIX, name),
+                        ContentModel.TYPE_CONTENT,
+                        contentProps
+                        ).getChildRef();
+
+        QName publishedQName = QName.createQName("http://www.someco.com/model/content/1.0", "published");
+
+        Action action = actionService.createAction(SetWebFlag.NAME);
+        action.setParameterValue(SetWebFlag.PARAM_ACTIVE, true);
+        actionService.executeAction(action, content);
+        Serializable published = nodeService.getProperty(content, publishedQName);
+        Assert.assertNotNull(published);
+
+        // the flag is already set, so the publication date is left alone
+        actionService.executeAction(action, content);
+        Assert.assertEquals(published, nodeService.getProperty(content, publishedQName));
+
+        nodeService.deleteNode(content);
+    }
 }
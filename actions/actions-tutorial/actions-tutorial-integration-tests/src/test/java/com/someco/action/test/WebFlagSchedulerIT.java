@@ -0,0 +1,186 @@
+package com.someco.action.test;
+
+import com.someco.schedule.WebFlagScheduler;
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AbstractAlfrescoIT;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(value = AlfrescoTestRunner.class)
+public class WebFlagSchedulerIT extends AbstractAlfrescoIT {
+
+    private static final String NAMESPACE = "http://www.someco.com/model/content/1.0";
+    private static final QName ASPECT_WEBABLE = QName.createQName(NAMESPACE, "webable");
+    private static final QName PROP_IS_ACTIVE = QName.createQName(NAMESPACE, "isActive");
+    private static final QName PROP_PUBLISH_FROM = QName.createQName(NAMESPACE, "publishFrom");
+    private static final QName PROP_PUBLISH_UNTIL = QName.createQName(NAMESPACE, "publishUntil");
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    // the searches are run against the index, which may be behind
+    private static final long INDEX_WAIT = 60000;
+
+    static Logger log = Logger.getLogger(WebFlagSchedulerIT.class);
+
+    @Test
+    public void testDueWindows() throws InterruptedException {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+        WebFlagScheduler scheduler = (WebFlagScheduler)getApplicationContext().getBean("actions-tutorial-platform_webFlagScheduler");
+
+        long now = System.currentTimeMillis();
+        final NodeRef opened = createWebable("opened", false, new Date(now - HOUR), null);
+        final NodeRef expired = createWebable("expired", true, new Date(now - 3 * HOUR), new Date(now - HOUR));
+        final NodeRef notYet = createWebable("not yet", false, new Date(now + HOUR), null);
+        final NodeRef closed = createWebable("closed", false, new Date(now - 3 * HOUR), new Date(now - HOUR));
+        // published by an earlier pass and then switched off by hand
+        final NodeRef disabled = createWebable("disabled", false, new Date(now - 3 * HOUR), null);
+
+        try {
+            waitUntilIndexed(opened);
+            waitUntilIndexed(expired);
+            waitUntilIndexed(disabled);
+
+            // the last pass ended two hours ago
+            setWindow(null, now - 2 * HOUR, null);
+            scheduler.execute();
+
+            Assert.assertTrue(isActive(opened));
+            Assert.assertFalse(isActive(expired));
+            Assert.assertFalse(isActive(notYet));
+            Assert.assertFalse(isActive(closed));
+            Assert.assertFalse("A node switched off by hand must stay off", isActive(disabled));
+        } finally {
+            txnHelper.doInTransaction(() -> {
+                nodeService.deleteNode(opened);
+                nodeService.deleteNode(expired);
+                nodeService.deleteNode(notYet);
+                nodeService.deleteNode(closed);
+                nodeService.deleteNode(disabled);
+                return null;
+            }, false, true);
+        }
+    }
+
+    @Test
+    public void testResumesAfterCheckpoint() throws InterruptedException {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final AttributeService attributeService = getServiceRegistry().getAttributeService();
+        RetryingTransactionHelper txnHelper = getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+        WebFlagScheduler scheduler = (WebFlagScheduler)getApplicationContext().getBean("actions-tutorial-platform_webFlagScheduler");
+
+        final NodeRef content = createWebable("checkpoint", false, new Date(System.currentTimeMillis() - HOUR), null);
+
+        try {
+            waitUntilIndexed(content);
+
+            final long now = System.currentTimeMillis();
+            final Long dbid = txnHelper.doInTransaction(() -> (Long)nodeService.getProperty(content, ContentModel.PROP_NODE_DBID), true, true);
+
+            // a run that stopped after this node must not go back to it
+            setWindow(now - 2 * HOUR, now, dbid);
+            scheduler.execute();
+            Assert.assertFalse(isActive(content));
+            // that pass ran out of nodes and cleared the checkpoint
+            Assert.assertNull(txnHelper.doInTransaction(() -> attributeService.getAttribute("someco", "webFlagScheduler", "activate"), true, true));
+
+            // a run that stopped before this node carries on in the same window
+            setWindow(now - 2 * HOUR, now, dbid - 1);
+            scheduler.execute();
+            Assert.assertTrue(isActive(content));
+        } finally {
+            txnHelper.doInTransaction(() -> {
+                attributeService.removeAttribute("someco", "webFlagScheduler", "activate");
+                nodeService.deleteNode(content);
+                return null;
+            }, false, true);
+        }
+    }
+
+    private NodeRef createWebable(final String label, final boolean active, final Date publishFrom, final Date publishUntil) {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(() -> {
+            NodeRef companyHome = getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null);
+            String name = "Web Flag Scheduler Test " + label + " (" + System.currentTimeMillis() + ")";
+            Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+            props.put(ContentModel.PROP_NAME, name);
+            NodeRef nodeRef = nodeService.createNode(companyHome, ContentModel.ASSOC_CONTAINS,
+                    QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                    ContentModel.TYPE_CONTENT, props).getChildRef();
+
+            Map<QName, Serializable> webProps = new HashMap<QName, Serializable>();
+            webProps.put(PROP_IS_ACTIVE, active);
+            webProps.put(PROP_PUBLISH_FROM, publishFrom);
+            webProps.put(PROP_PUBLISH_UNTIL, publishUntil);
+            nodeService.addAspect(nodeRef, ASPECT_WEBABLE, webProps);
+            return nodeRef;
+        }, false, true);
+    }
+
+    /**
+     * Sets the publishFrom window and checkpoint that the next activate pass
+     * starts from. With a checkpoint the pass resumes in the given window,
+     * without one it starts a new window after until.
+     */
+    private void setWindow(final Long since, final long until, final Long checkpoint) {
+        final AttributeService attributeService = getServiceRegistry().getAttributeService();
+        getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(() -> {
+            if (since == null) {
+                attributeService.removeAttribute("someco", "webFlagScheduler", "activateSince");
+            } else {
+                attributeService.setAttribute(since, "someco", "webFlagScheduler", "activateSince");
+            }
+            attributeService.setAttribute(until, "someco", "webFlagScheduler", "activateUntil");
+            if (checkpoint == null) {
+                attributeService.removeAttribute("someco", "webFlagScheduler", "activate");
+            } else {
+                attributeService.setAttribute(checkpoint, "someco", "webFlagScheduler", "activate");
+            }
+            return null;
+        }, false, true);
+    }
+
+    private boolean isActive(final NodeRef nodeRef) {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(
+                () -> Boolean.TRUE.equals(getServiceRegistry().getNodeService().getProperty(nodeRef, PROP_IS_ACTIVE)), true, true);
+    }
+
+    private void waitUntilIndexed(final NodeRef nodeRef) throws InterruptedException {
+        final SearchService searchService = getServiceRegistry().getSearchService();
+        long deadline = System.currentTimeMillis() + INDEX_WAIT;
+        while (System.currentTimeMillis() < deadline) {
+            boolean found = getServiceRegistry().getTransactionService().getRetryingTransactionHelper().doInTransaction(() -> {
+                ResultSet results = searchService.query(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, SearchService.LANGUAGE_LUCENE,
+                        "ID:\"" + nodeRef + "\" AND @sc\\:publishFrom:[MIN TO NOW]");
+                try {
+                    return results.length() > 0;
+                } finally {
+                    results.close();
+                }
+            }, true, true);
+            if (found) {
+                return;
+            }
+            Thread.sleep(1000);
+        }
+        Assert.fail(nodeRef + " was not indexed within " + INDEX_WAIT + "ms");
+    }
+}
@@ -0,0 +1,441 @@
+package com.someco.action;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.action.AsynchronousActionExecutionQueue;
+import org.alfresco.repo.action.RuntimeActionService;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ActionTrackingService;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Asynchronous action execution queue for the someco actions. Executers whose
+ * queueName matches this queue's id are run here when they are executed
+ * asynchronously, for example by a rule set to run in the background.
+ *
+ * Actions are queued once the transaction that requested them commits. The
+ * actions for nodes in the same folder run one at a time in the order they
+ * were queued, and at most threadCount actions run at once. A folder gives
+ * up its thread after maxPerTurn actions so a busy folder cannot starve the
+ * others. When an action named in coalescedActions is queued for a node
+ * that already has one of them waiting, the waiting one is dropped so only
+ * the last one runs. This includes actions queued by the same transaction.
+ * Dropped actions are recorded as failed with the action tracking service,
+ * so they do not stay pending.
+ *
+ * At most queueCapacity folders wait for a thread. When more are waiting,
+ * the thread that queues the next one runs it instead, and a folder whose
+ * turn is over keeps its thread rather than going back in the queue. If an
+ * action fails,
+ * its compensating action is run, as the default queue does. On shutdown the
+ * queued actions are run for up to shutdownTimeout milliseconds, and any
+ * that are left are logged.
+ *
+ * Queue depth, wait time and execution time are exposed as metrics.
+ */
+public class OrderedActionQueue implements AsynchronousActionExecutionQueue {
+
+    private static final String KEY_PENDING = OrderedActionQueue.class.getName() + ".pending";
+
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int SUPERSEDED = 2;
+
+    // Dependencies
+    private RuntimeActionService actionService;
+    private ActionTrackingService actionTrackingService;
+    private NodeService nodeService;
+    private TransactionService transactionService;
+
+    // Configuration
+    private String id = "someco";
+    private int threadCount = 2;
+    private int maxPerTurn = 10;
+    private int queueCapacity = 1000;
+    private long shutdownTimeout = 30000;
+    private Set<String> coalescedActions = Collections.emptySet();
+
+    private ThreadPoolExecutor executor;
+    // set once destroy has stopped running actions
+    private volatile boolean stopped;
+
+    // folder -> actions waiting for it, guarded by lanes
+    private final Map<NodeRef, Deque<Request>> lanes = new HashMap<NodeRef, Deque<Request>>();
+
+    // node -> last coalesced action queued for it
+    private final Map<NodeRef, Request> latest = new ConcurrentHashMap<NodeRef, Request>();
+
+    private final TransactionListenerAdapter transactionListener = new QueueListener();
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong compensated = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong totalWait = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+    private final AtomicLong totalExecution = new AtomicLong();
+
+    private static Log logger = LogFactory.getLog(OrderedActionQueue.class);
+
+    public void init() {
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("SomecoActionQueue");
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // only new folders are submitted, and a LaneRunner never
+                        // submits, so running one here does not recurse. Whatever
+                        // is left once stopped is logged by destroy
+                        if (!stopped) {
+                            if (logger.isDebugEnabled()) logger.debug("No room to queue a folder, running it in the calling thread");
+                            r.run();
+                        }
+                    }
+                });
+        // runners hand themselves back to the work queue directly, which
+        // needs the threads to be there to take them
+        executor.prestartAllCoreThreads();
+        actionService.registerAsynchronousActionExecutionQueue(id, this);
+    }
+
+    /**
+     * Runs the queued actions for up to shutdownTimeout, then logs the ones
+     * that did not run.
+     */
+    public void destroy() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        stopped = true;
+
+        synchronized (lanes) {
+            for (Deque<Request> lane : lanes.values()) {
+                for (Request request : lane) {
+                    if (request.state.get() == PENDING) {
+                        logger.error("Queued action " + request.action.getActionDefinitionName() + " for " + request.nodeRef
+                                + " was not run before shutdown");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the action to run after the current transaction commits.
+     */
+    @Override
+    public void executeAction(RuntimeActionService actionService, Action action, NodeRef actionedUponNodeRef,
+            boolean checkConditions, Set<String> actionChain) {
+        NodeRef folder = null;
+        if (nodeService.exists(actionedUponNodeRef)) {
+            ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(actionedUponNodeRef);
+            folder = parentAssoc.getParentRef();
+        }
+        // nodes without a folder are ordered on their own
+        if (folder == null) {
+            folder = actionedUponNodeRef;
+        }
+
+        String runAsUser = AuthenticationUtil.getRunAsUser();
+        if (runAsUser == null) {
+            runAsUser = AuthenticationUtil.getSystemUserName();
+        }
+
+        List<Request> pending = TransactionalResourceHelper.getList(KEY_PENDING);
+        pending.add(new Request(action, actionedUponNodeRef, folder, checkConditions,
+                actionChain == null ? null : new HashSet<String>(actionChain), runAsUser));
+        AlfrescoTransactionSupport.bindListener(transactionListener);
+    }
+
+    /**
+     * Adds the actions of a committed transaction to their folders' lanes,
+     * and only then starts runners for the new lanes, so the actions of one
+     * transaction are coalesced and ordered together.
+     */
+    private void enqueue(List<Request> requests) {
+        List<NodeRef> newLanes = new ArrayList<NodeRef>();
+        synchronized (lanes) {
+            for (Request request : requests) {
+                request.queued = System.currentTimeMillis();
+                if (coalescedActions.contains(request.action.getActionDefinitionName())) {
+                    Request previous = latest.put(request.nodeRef, request);
+                    if (previous != null && previous.state.compareAndSet(PENDING, SUPERSEDED)) {
+                        coalesced.incrementAndGet();
+                        depth.decrementAndGet();
+                        if (logger.isDebugEnabled()) logger.debug("Dropped " + previous.action.getActionDefinitionName()
+                                + " for " + previous.nodeRef + " in favour of " + request.action.getActionDefinitionName());
+                    }
+                }
+                depth.incrementAndGet();
+
+                Deque<Request> lane = lanes.get(request.folder);
+                if (lane == null) {
+                    lane = new ArrayDeque<Request>();
+                    lanes.put(request.folder, lane);
+                    newLanes.add(request.folder);
+                }
+                lane.add(request);
+            }
+        }
+        for (NodeRef folder : newLanes) {
+            executor.execute(new LaneRunner(folder));
+        }
+    }
+
+    private void execute(final Request request) {
+        long start = System.currentTimeMillis();
+        long wait = start - request.queued;
+        totalWait.addAndGet(wait);
+        long max = maxWait.get();
+        while (wait > max && !maxWait.compareAndSet(max, wait)) {
+            max = maxWait.get();
+        }
+
+        try {
+            AuthenticationUtil.runAs(() -> transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                if (nodeService.exists(request.nodeRef)) {
+                    actionService.executeActionImpl(request.action, request.nodeRef, request.checkConditions, true, request.actionChain);
+                }
+                return null;
+            }, false, true), request.runAsUser);
+            executed.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            logger.error("Queued action " + request.action.getActionDefinitionName() + " failed for " + request.nodeRef, e);
+            compensate(request);
+        } finally {
+            latest.remove(request.nodeRef, request);
+            totalExecution.addAndGet(System.currentTimeMillis() - start);
+        }
+
+        if (logger.isDebugEnabled()) logger.debug("Ran " + request.action.getActionDefinitionName() + " for " + request.nodeRef
+                + " after waiting " + wait + "ms");
+    }
+
+    /**
+     * Records a dropped action as finished with the action tracking service.
+     * Its status is Failed with a message naming the reason, as a
+     * non-cancellable action cannot be marked Cancelled.
+     */
+    private void supersede(final Request request) {
+        try {
+            AuthenticationUtil.runAs(() -> transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                actionTrackingService.recordActionFailure(request.action, new AlfrescoRuntimeException(
+                        "Superseded by a later " + request.action.getActionDefinitionName() + " queued for " + request.nodeRef));
+                return null;
+            }, false, true), request.runAsUser);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to record superseded action " + request.action.getActionDefinitionName() + " for " + request.nodeRef, e);
+        }
+    }
+
+    /**
+     * Runs the compensating action of a failed action, if it has one, in a
+     * transaction of its own.
+     */
+    private void compensate(final Request request) {
+        final Action compensatingAction = request.action.getCompensatingAction();
+        if (compensatingAction == null) {
+            return;
+        }
+        try {
+            AuthenticationUtil.runAs(() -> transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                actionService.executeActionImpl(compensatingAction, request.nodeRef, false, false, request.actionChain);
+                return null;
+            }, false, true), request.runAsUser);
+            compensated.incrementAndGet();
+        } catch (RuntimeException e) {
+            logger.error("Compensating action " + compensatingAction.getActionDefinitionName() + " failed for " + request.nodeRef, e);
+        }
+    }
+
+    /** Actions queued and not yet started. */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** Failed actions whose compensating action was run. */
+    public long getCompensatedCount() {
+        return compensated.get();
+    }
+
+    /** Actions dropped because a later one was queued for the same node. */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /** Average time from queueing an action to starting it. */
+    public double getAverageWaitMillis() {
+        long total = executed.get() + failed.get();
+        return total == 0 ? 0d : totalWait.get() / (total / 1.0d);
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWait.get();
+    }
+
+    public double getAverageExecutionMillis() {
+        long total = executed.get() + failed.get();
+        return total == 0 ? 0d : totalExecution.get() / (total / 1.0d);
+    }
+
+    public void setActionService(RuntimeActionService actionService) {
+        this.actionService = actionService;
+    }
+
+    public void setActionTrackingService(ActionTrackingService actionTrackingService) {
+        this.actionTrackingService = actionTrackingService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public void setMaxPerTurn(int maxPerTurn) {
+        this.maxPerTurn = maxPerTurn;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+
+    public void setCoalescedActions(Set<String> coalescedActions) {
+        this.coalescedActions = coalescedActions;
+    }
+
+    private static class Request {
+        private final Action action;
+        private final NodeRef nodeRef;
+        private final NodeRef folder;
+        private final boolean checkConditions;
+        private final Set<String> actionChain;
+        private final String runAsUser;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long queued;
+
+        private Request(Action action, NodeRef nodeRef, NodeRef folder, boolean checkConditions, Set<String> actionChain, String runAsUser) {
+            this.action = action;
+            this.nodeRef = nodeRef;
+            this.folder = folder;
+            this.checkConditions = checkConditions;
+            this.actionChain = actionChain;
+            this.runAsUser = runAsUser;
+        }
+    }
+
+    /**
+     * Runs up to maxPerTurn of the actions waiting for one folder, then
+     * queues itself again behind the other folders if any are left. If the
+     * work queue is full, or while shutting down, it keeps running them.
+     * It only ever hands itself to the work queue directly, never through
+     * the executor, so it cannot end up running inside itself.
+     */
+    private class LaneRunner implements Runnable {
+        private final NodeRef folder;
+
+        private LaneRunner(NodeRef folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        public void run() {
+            int ran = 0;
+            while (true) {
+                Request request;
+                synchronized (lanes) {
+                    if (stopped) {
+                        return;
+                    }
+                    Deque<Request> lane = lanes.get(folder);
+                    if (lane.isEmpty()) {
+                        lanes.remove(folder);
+                        return;
+                    }
+                    if (ran >= maxPerTurn && !executor.isShutdown()) {
+                        if (executor.getQueue().offer(this)) {
+                            return;
+                        }
+                        // nowhere to go behind the others, so keep going
+                        ran = 0;
+                    }
+                    request = lane.poll();
+                }
+                if (request.state.compareAndSet(PENDING, RUNNING)) {
+                    depth.decrementAndGet();
+                    execute(request);
+                    ran++;
+                } else {
+                    supersede(request);
+                }
+            }
+        }
+    }
+
+    private class QueueListener extends TransactionListenerAdapter {
+
+        @Override
+        public void afterCommit() {
+            enqueue(TransactionalResourceHelper.<Request>getList(KEY_PENDING));
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package com.someco.action.executer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.action.ParameterDefinitionImpl;
+import org.alfresco.repo.action.executer.ActionExecuterAbstractBase;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.workflow.WorkflowModel;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ParameterDefinition;
+import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+
+/**
+ * Sets the web flag of many nodes at once: the nodes in the nodes parameter,
+ * or else every child of the folder or workflow package the action runs on,
+ * or else just the node itself.
+ *
+ * Children are read a page at a time with a canned child query. The nodes
+ * are updated by set-web-flag's {@link SetWebFlag#setWebFlag(NodeRef, boolean)}
+ * on workerThreads threads, batchSize nodes per transaction, so a large
+ * package is neither one long transaction nor processed one node after the
+ * other. Each batch commits on its own, so the changes are kept even if the
+ * calling transaction later rolls back.
+ *
+ * The outcome of each node, "ok" or the error it failed with, is returned as
+ * a map keyed by NodeRef in the result parameter.
+ */
+public class BatchSetWebFlag extends ActionExecuterAbstractBase implements ApplicationEventPublisherAware {
+
+    public final static String NAME = "batch-set-web-flag";
+    public final static String PARAM_ACTIVE = SetWebFlag.PARAM_ACTIVE;
+    public final static String PARAM_NODES = "nodes";
+
+    public final static String OUTCOME_OK = "ok";
+
+    private static final Set<QName> CHILD_ASSOC_TYPES = Collections.unmodifiableSet(new HashSet<QName>(
+            Arrays.asList(ContentModel.ASSOC_CONTAINS, WorkflowModel.ASSOC_PACKAGE_CONTAINS)));
+
+    // Dependencies
+    private NodeService nodeService;
+    private FileFolderService fileFolderService;
+    private DictionaryService dictionaryService;
+    private TransactionService transactionService;
+    private SetWebFlag setWebFlag;
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    // Configuration
+    private int batchSize = 50;
+    private int workerThreads = 4;
+    private int loggingInterval = 1000;
+    private int countMax = 100000;
+
+    private static Log logger = LogFactory.getLog(BatchSetWebFlag.class);
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void executeImpl(Action action, final NodeRef actionedUponNodeRef) {
+        Boolean activeParam = (Boolean)action.getParameterValue(PARAM_ACTIVE);
+        final boolean active = activeParam == null ? true : activeParam;
+        List<NodeRef> nodes = (List<NodeRef>)action.getParameterValue(PARAM_NODES);
+
+        BatchProcessWorkProvider<NodeRef> workProvider;
+        if (nodes != null && !nodes.isEmpty()) {
+            workProvider = new ListWorkProvider(nodes);
+        } else if (actionedUponNodeRef != null && isContainer(actionedUponNodeRef)) {
+            workProvider = new ChildWorkProvider(actionedUponNodeRef);
+        } else if (actionedUponNodeRef != null) {
+            workProvider = new ListWorkProvider(Collections.singletonList(actionedUponNodeRef));
+        } else {
+            if (logger.isDebugEnabled()) logger.debug("Nothing to set the web flag of");
+            return;
+        }
+
+        final Map<NodeRef, String> outcomes = new ConcurrentHashMap<NodeRef, String>();
+        final String runAsUser = AuthenticationUtil.getRunAsUser();
+
+        BatchProcessor<NodeRef> processor = new BatchProcessor<NodeRef>(
+                NAME, transactionService.getRetryingTransactionHelper(), workProvider,
+                workerThreads, batchSize, applicationEventPublisher, logger, loggingInterval);
+
+        processor.process(new BatchProcessWorkerAdaptor<NodeRef>() {
+            @Override
+            public void beforeProcess() throws Throwable {
+                AuthenticationUtil.setRunAsUser(runAsUser);
+            }
+
+            @Override
+            public void afterProcess() throws Throwable {
+                AuthenticationUtil.clearCurrentSecurityContext();
+            }
+
+            @Override
+            public void process(NodeRef nodeRef) throws Throwable {
+                try {
+                    if (nodeService.exists(nodeRef)) {
+                        setWebFlag.setWebFlag(nodeRef, active);
+                        outcomes.put(nodeRef, OUTCOME_OK);
+                    } else {
+                        outcomes.put(nodeRef, "Node does not exist");
+                    }
+                } catch (Throwable e) {
+                    outcomes.put(nodeRef, String.valueOf(e.getMessage()));
+                    throw e;
+                }
+            }
+        }, true);
+
+        if (logger.isDebugEnabled()) logger.debug("Set web flag to " + active + " on " + processor.getSuccessfullyProcessedEntries()
+                + " node(s), " + processor.getTotalErrors() + " failed");
+
+        action.setParameterValue(PARAM_RESULT, new HashMap<NodeRef, String>(outcomes));
+    }
+
+    private boolean isContainer(NodeRef nodeRef) {
+        return dictionaryService.isSubClass(nodeService.getType(nodeRef), ContentModel.TYPE_FOLDER);
+    }
+
+    @Override
+    protected void addParameterDefinitions(List<ParameterDefinition> paramList) {
+        paramList.add(new ParameterDefinitionImpl(PARAM_ACTIVE, DataTypeDefinition.BOOLEAN, false, getParamDisplayLabel(PARAM_ACTIVE)));
+        paramList.add(new ParameterDefinitionImpl(PARAM_NODES, DataTypeDefinition.NODE_REF, false, getParamDisplayLabel(PARAM_NODES), true));
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setFileFolderService(FileFolderService fileFolderService) {
+        this.fileFolderService = fileFolderService;
+    }
+
+    public void setDictionaryService(DictionaryService dictionaryService) {
+        this.dictionaryService = dictionaryService;
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public void setSetWebFlag(SetWebFlag setWebFlag) {
+        this.setWebFlag = setWebFlag;
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setLoggingInterval(int loggingInterval) {
+        this.loggingInterval = loggingInterval;
+    }
+
+    public void setCountMax(int countMax) {
+        this.countMax = countMax;
+    }
+
+    /**
+     * Hands out a fixed list of nodes.
+     */
+    private class ListWorkProvider implements BatchProcessWorkProvider<NodeRef> {
+        private final List<NodeRef> nodeRefs;
+        private int next;
+
+        private ListWorkProvider(List<NodeRef> nodeRefs) {
+            this.nodeRefs = new ArrayList<NodeRef>(nodeRefs);
+        }
+
+        @Override
+        public int getTotalEstimatedWorkSize() {
+            return nodeRefs.size();
+        }
+
+        @Override
+        public Collection<NodeRef> getNextWork() {
+            int end = Math.min(next + batchSize * workerThreads, nodeRefs.size());
+            List<NodeRef> work = new ArrayList<NodeRef>(nodeRefs.subList(next, end));
+            next = end;
+            return work;
+        }
+    }
+
+    /**
+     * Hands out the children of a folder or workflow package a page at a
+     * time, each page read in a read-only transaction of its own.
+     */
+    private class ChildWorkProvider implements BatchProcessWorkProvider<NodeRef> {
+        private final NodeRef parentRef;
+        private int skipCount;
+        private boolean hasMore = true;
+
+        private ChildWorkProvider(NodeRef parentRef) {
+            this.parentRef = parentRef;
+        }
+
+        @Override
+        public int getTotalEstimatedWorkSize() {
+            return transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                PagingRequest pagingRequest = new PagingRequest(0, 1);
+                pagingRequest.setRequestTotalCountMax(countMax);
+                Integer total = fileFolderService.list(parentRef, CHILD_ASSOC_TYPES, null, null, null, null, pagingRequest)
+                        .getTotalResultCount().getFirst();
+                return total == null ? countMax : total;
+            }, true, true);
+        }
+
+        @Override
+        public Collection<NodeRef> getNextWork() {
+            if (!hasMore) {
+                return Collections.emptyList();
+            }
+            final int pageSize = batchSize * workerThreads;
+            List<NodeRef> page = transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                PagingResults<FileInfo> results = fileFolderService.list(parentRef, CHILD_ASSOC_TYPES, null, null, null, null,
+                        new PagingRequest(skipCount, pageSize));
+                List<NodeRef> nodeRefs = new ArrayList<NodeRef>(results.getPage().size());
+                for (FileInfo fileInfo : results.getPage()) {
+                    nodeRefs.add(fileInfo.getNodeRef());
+                }
+                hasMore = results.hasMoreItems();
+                return nodeRefs;
+            }, true, true);
+            skipCount += page.size();
+            return page;
+        }
+    }
+
+}
@@ -1,9 +1,24 @@
 package com.someco.action.executer;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.repo.action.ParameterDefinitionImpl;
 import org.alfresco.repo.action.executer.ActionExecuterAbstractBase;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
 import org.alfresco.service.cmr.action.Action;
 import org.alfresco.service.cmr.action.ParameterDefinition;
 import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
@@ -15,14 +30,93 @@ import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.namespace.QNamePattern;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 
-public class MoveReplacedActionExecuter extends ActionExecuterAbstractBase {
+/**
+ * Moves the targets of a node's cm:replaces associations to the destination
+ * folder.
+ *
+ * A few targets are moved one after the other in the rule's transaction.
+ * When there are at least bulkThreshold of them, they are moved after that
+ * transaction commits instead, in the background so the upload that fired
+ * the rule does not wait for them. Up to bulkQueueSize bulk moves wait for a
+ * turn; when that many are already waiting, the move runs in the committing
+ * thread. A bulk move uses workerThreads threads and moves batchSize targets
+ * per retrying transaction. A failed batch does not undo the others.
+ *
+ * Targets that cannot be moved are logged and counted rather than ignored.
+ * The counters and the throughput of the bulk moves are exposed as metrics.
+ * Moves are counted once their transaction commits, so retries are not
+ * counted twice.
+ */
+public class MoveReplacedActionExecuter extends ActionExecuterAbstractBase implements ApplicationEventPublisherAware {
     public static final String NAME = "move-replaced";
     public static final String PARAM_DESTINATION_FOLDER = "destination-folder";
     
+    private static Log logger = LogFactory.getLog(MoveReplacedActionExecuter.class);
+
+    private static final String KEY_MOVED = MoveReplacedActionExecuter.class.getName() + ".moved";
+    private static final String KEY_NOT_FOUND = MoveReplacedActionExecuter.class.getName() + ".notFound";
+
     private FileFolderService fileFolderService;
     private NodeService nodeService;
-    
+    private TransactionService transactionService;
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    private int bulkThreshold = 50;
+    private int workerThreads = 4;
+    private int batchSize = 20;
+    private int bulkQueueSize = 10;
+
+    private ThreadPoolExecutor bulkExecutor;
+    private final TransactionListenerAdapter countListener = new CountListener();
+
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong notFound = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bulkMoved = new AtomicLong();
+    private final AtomicLong bulkMillis = new AtomicLong();
+    private final AtomicInteger pendingBulkMoves = new AtomicInteger();
+
+    @Override
+    public void init() {
+        super.init();
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("SomecoBulkMove");
+        bulkExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(bulkQueueSize), threadFactory, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            logger.error("Bulk move dropped, the executer is shutting down");
+                            pendingBulkMoves.decrementAndGet();
+                            return;
+                        }
+                        logger.warn(bulkQueueSize + " bulk moves are already waiting, moving in the committing thread");
+                        r.run();
+                    }
+                });
+    }
+
+    public void destroy() {
+        bulkExecutor.shutdown();
+        try {
+            if (!bulkExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                List<Runnable> dropped = bulkExecutor.shutdownNow();
+                logger.error(dropped.size() + " waiting bulk move(s) were not run before shutdown");
+            }
+        } catch (InterruptedException e) {
+            bulkExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     protected void addParameterDefinitions(List<ParameterDefinition> paramList) {
         paramList.add(
@@ -43,21 +137,124 @@ public class MoveReplacedActionExecuter extends ActionExecuterAbstractBase {
         if (assocRefs.isEmpty()) {
         	// no work to do, return
         	return;
-        } else {
-        	NodeRef destinationParent = (NodeRef)ruleAction.getParameterValue(PARAM_DESTINATION_FOLDER);
-        	for (AssociationRef assocNode : assocRefs) {
-                // create a noderef for the replaces association
-            	NodeRef targetNodeRef = assocNode.getTargetRef();
-                // if the node exists
-                if (this.nodeService.exists(targetNodeRef) == true) {
-			        try {
-			            fileFolderService.move(targetNodeRef, destinationParent, null);
-			        } catch (FileNotFoundException e) {
-			            // Do nothing
-			        }
-                }
-            } // next assocNode
-        } // end if isEmpty
+        }
+
+        NodeRef destinationParent = (NodeRef)ruleAction.getParameterValue(PARAM_DESTINATION_FOLDER);
+        if (assocRefs.size() >= bulkThreshold) {
+            List<NodeRef> targets = new ArrayList<NodeRef>(assocRefs.size());
+            for (AssociationRef assocNode : assocRefs) {
+                targets.add(assocNode.getTargetRef());
+            }
+            // the targets are moved in transactions of their own, so wait
+            // until the replacing node is committed
+            AlfrescoTransactionSupport.bindListener(new BulkMoveListener(targets, destinationParent, AuthenticationUtil.getRunAsUser()));
+            return;
+        }
+
+        for (AssociationRef assocNode : assocRefs) {
+            move(assocNode.getTargetRef(), destinationParent);
+        } // next assocNode
+    }
+
+    /**
+     * Moves one target if it still exists. Must be called inside a
+     * transaction; the move is counted when it commits.
+     */
+    private void move(NodeRef targetNodeRef, NodeRef destinationParent) {
+        // if the node exists
+        if (this.nodeService.exists(targetNodeRef) == true) {
+            try {
+                fileFolderService.move(targetNodeRef, destinationParent, null);
+                TransactionalResourceHelper.incrementCount(KEY_MOVED);
+            } catch (FileNotFoundException e) {
+                TransactionalResourceHelper.incrementCount(KEY_NOT_FOUND);
+                logger.warn("Could not move replaced node " + targetNodeRef + " to " + destinationParent + ": " + e.getMessage());
+            }
+            AlfrescoTransactionSupport.bindListener(countListener);
+        }
+    }
+
+    private void moveAll(final List<NodeRef> targets, final NodeRef destinationParent, final String runAsUser) {
+        long start = System.currentTimeMillis();
+
+        BatchProcessor<NodeRef> processor = new BatchProcessor<NodeRef>(
+                NAME, transactionService.getRetryingTransactionHelper(), new BatchProcessWorkProvider<NodeRef>() {
+                    private boolean done;
+
+                    @Override
+                    public int getTotalEstimatedWorkSize() {
+                        return targets.size();
+                    }
+
+                    @Override
+                    public Collection<NodeRef> getNextWork() {
+                        if (done) {
+                            return new ArrayList<NodeRef>(0);
+                        }
+                        done = true;
+                        return targets;
+                    }
+                },
+                workerThreads, batchSize, applicationEventPublisher, logger, 1000);
+
+        processor.process(new BatchProcessWorkerAdaptor<NodeRef>() {
+            @Override
+            public void beforeProcess() throws Throwable {
+                AuthenticationUtil.setRunAsUser(runAsUser);
+            }
+
+            @Override
+            public void afterProcess() throws Throwable {
+                AuthenticationUtil.clearCurrentSecurityContext();
+            }
+
+            @Override
+            public void process(NodeRef targetNodeRef) throws Throwable {
+                move(targetNodeRef, destinationParent);
+            }
+        }, true);
+
+        long elapsed = System.currentTimeMillis() - start;
+        int errors = processor.getTotalErrors();
+        failed.addAndGet(errors);
+        bulkMoved.addAndGet(processor.getSuccessfullyProcessedEntries());
+        bulkMillis.addAndGet(elapsed);
+
+        if (errors > 0) {
+            logger.warn(errors + " of " + targets.size() + " replaced node(s) could not be moved to " + destinationParent
+                    + ", last error: " + processor.getLastError());
+        }
+        if (logger.isInfoEnabled()) logger.info("Moved " + processor.getSuccessfullyProcessedEntries() + " replaced node(s) to "
+                + destinationParent + " in " + elapsed + "ms (" + String.format("%.1f", perSecond(processor.getSuccessfullyProcessedEntries(), elapsed)) + "/s)");
+    }
+
+    private static double perSecond(long count, long millis) {
+        return millis == 0 ? 0d : count * 1000d / millis;
+    }
+
+    /** Replaced nodes moved, serially or in bulk. */
+    public long getMovedCount() {
+        return moved.get();
+    }
+
+    /** Replaced nodes that could not be moved because a node was missing. */
+    public long getNotFoundCount() {
+        return notFound.get();
+    }
+
+    /** Replaced nodes whose bulk move failed with an error. */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** Bulk moves waiting for a turn or running. */
+    public int getPendingBulkMoves() {
+        return pendingBulkMoves.get();
+    }
+
+    /** Average number of nodes moved per second by the bulk moves. */
+    public double getBulkThroughput() {
+        return perSecond(bulkMoved.get(), bulkMillis.get());
     }
 
     public void setFileFolderService(FileFolderService fileFolderService) {
@@ -68,5 +265,74 @@ public class MoveReplacedActionExecuter extends ActionExecuterAbstractBase {
         this.nodeService = nodeService;
     }
 
-}
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
 
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    public int getBulkThreshold() {
+        return bulkThreshold;
+    }
+
+    public void setBulkThreshold(int bulkThreshold) {
+        this.bulkThreshold = bulkThreshold;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBulkQueueSize(int bulkQueueSize) {
+        this.bulkQueueSize = bulkQueueSize;
+    }
+
+    private class BulkMoveListener extends TransactionListenerAdapter {
+        private final List<NodeRef> targets;
+        private final NodeRef destinationParent;
+        private final String runAsUser;
+
+        private BulkMoveListener(List<NodeRef> targets, NodeRef destinationParent, String runAsUser) {
+            this.targets = targets;
+            this.destinationParent = destinationParent;
+            this.runAsUser = runAsUser;
+        }
+
+        @Override
+        public void afterCommit() {
+            pendingBulkMoves.incrementAndGet();
+            bulkExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        moveAll(targets, destinationParent, runAsUser);
+                    } catch (RuntimeException e) {
+                        logger.error("Bulk move of " + targets.size() + " replaced node(s) to " + destinationParent + " failed", e);
+                    } finally {
+                        pendingBulkMoves.decrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Adds the moves made in a transaction to the counters once it commits.
+     */
+    private class CountListener extends TransactionListenerAdapter {
+
+        @Override
+        public void afterCommit() {
+            moved.addAndGet(TransactionalResourceHelper.getCount(KEY_MOVED));
+            notFound.addAndGet(TransactionalResourceHelper.getCount(KEY_NOT_FOUND));
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package com.someco.action.executer;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -25,7 +26,7 @@ public class SetWebFlag extends ActionExecuterAbstractBase {
 	
 	/** The NodeService to be used by the bean */
 	protected NodeService nodeService;
-	
+
 	private static Log logger = LogFactory.getLog(SetWebFlag.class);
 	
 	@Override
@@ -36,31 +37,47 @@ public class SetWebFlag extends ActionExecuterAbstractBase {
 		if (activeFlag == null) activeFlag = true;
 		
 		if (logger.isDebugEnabled()) logger.debug("Inside executeImpl");
-					
-		// set the sc:isActive property to true
-		// set the sc:published property to now
-		Map<QName, Serializable> properties = nodeService.getProperties(actionedUponNodeRef);
-		properties.put(QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE), activeFlag);
+
+		setWebFlag(actionedUponNodeRef, activeFlag);
+
+		if (logger.isDebugEnabled()) logger.debug("Ran web enable/disable action");
+                                 
+	}
+
+	/**
+	 * Adds the sc:webable aspect to the node if needed and sets its sc:isActive
+	 * flag, stamping sc:published when the node is made active. Only those two
+	 * properties are written, and nothing is written at all when the flag
+	 * already has the requested value. Must be called inside a transaction.
+	 */
+	public void setWebFlag(NodeRef nodeRef, boolean activeFlag) {
+		QName webableQName = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.ASPECT_SC_WEBABLE);
+		QName isActiveQName = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE);
+
+		boolean hasAspect = nodeService.hasAspect(nodeRef, webableQName);
+		if (hasAspect && Boolean.valueOf(activeFlag).equals(nodeService.getProperty(nodeRef, isActiveQName))) {
+			if (logger.isDebugEnabled()) logger.debug("Web flag is already " + activeFlag);
+			return;
+		}
+
+		// set the sc:isActive property to the flag
+		// set the sc:published property to now if the node is made active
+		Map<QName, Serializable> properties = new HashMap<QName, Serializable>(4);
+		properties.put(isActiveQName, activeFlag);
 		  
 		if (activeFlag) {
 			properties.put(QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_PUBLISHED), new Date());
 		}
 		
-		// if the aspect has already been added, set the properties
-		if (nodeService.hasAspect(actionedUponNodeRef,
-				 QName.createQName(
-						SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL,
-						SomeCoModel.ASPECT_SC_WEBABLE))) {
+		// if the aspect has already been added, update just these properties
+		if (hasAspect) {
 			if (logger.isDebugEnabled()) logger.debug("Node has aspect");
-			nodeService.setProperties(actionedUponNodeRef, properties);
+			nodeService.addProperties(nodeRef, properties);
 		} else {
 			// otherwise, add the aspect and set the properties
 			if (logger.isDebugEnabled()) logger.debug("Node does not have aspect");
-			nodeService.addAspect(actionedUponNodeRef, QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.ASPECT_SC_WEBABLE), properties);
+			nodeService.addAspect(nodeRef, webableQName, properties);
 		}                  
-				
-		if (logger.isDebugEnabled()) logger.debug("Ran web enable/disable action");
-                                 
 	}
 
 	@Override
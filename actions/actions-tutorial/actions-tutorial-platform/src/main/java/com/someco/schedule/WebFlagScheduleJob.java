@@ -0,0 +1,23 @@
+package com.someco.schedule;
+
+import org.alfresco.schedule.AbstractScheduledLockedJob;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+/**
+ * Quartz job that runs the {@link WebFlagScheduler} passed in the job data
+ * as "webFlagScheduler". The base class holds a cluster-wide lock named after
+ * the job while it runs, so only one server runs it at a time.
+ */
+public class WebFlagScheduleJob extends AbstractScheduledLockedJob {
+
+    @Override
+    public void executeJob(JobExecutionContext context) throws JobExecutionException {
+        Object scheduler = context.getJobDetail().getJobDataMap().get("webFlagScheduler");
+        if (!(scheduler instanceof WebFlagScheduler)) {
+            throw new JobExecutionException("Missing setting for bean webFlagScheduler");
+        }
+        ((WebFlagScheduler)scheduler).execute();
+    }
+
+}
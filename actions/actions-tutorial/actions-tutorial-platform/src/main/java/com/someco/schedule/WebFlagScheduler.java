@@ -0,0 +1,271 @@
+package com.someco.schedule;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeRef.Status;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.someco.action.executer.SetWebFlag;
+import com.someco.model.SomeCoModel;
+
+/**
+ * Turns the web flag of sc:webable content on when its sc:publishFrom date
+ * passes and off when its sc:publishUntil date has passed. The nodes are
+ * updated with {@link SetWebFlag#setWebFlag(NodeRef, boolean)}.
+ *
+ * Activation follows the publishFrom dates rather than the current flag: a
+ * pass only activates the nodes whose publishFrom falls after the end of the
+ * previous pass, so a node that was switched off by hand stays off. The very
+ * first pass activates every node whose window is open. A publishFrom set to
+ * a time that an earlier pass already covered is not picked up; set the
+ * flag instead. Deactivation still turns off every expired active node.
+ *
+ * Each pass searches for the nodes due a change only, in ascending node id
+ * order, and updates batchSize of them per transaction. The highest node id
+ * returned by the search, whether or not the node still exists, is saved with
+ * the batch in the AttributeService. A run stops after maxBatches batches,
+ * and a run that is stopped or fails picks up after the saved id, in the same
+ * publishFrom window. The checkpoint is cleared once a pass runs out of
+ * nodes, so the next run starts from the beginning.
+ *
+ * The scheduler is run by {@link WebFlagScheduleJob}, which holds a cluster
+ * lock while it runs.
+ */
+public class WebFlagScheduler {
+
+    private static final String ATTR_APP = "someco";
+    private static final String ATTR_NAME = "webFlagScheduler";
+    // the publishFrom window of the current or last activate pass
+    private static final String ATTR_SINCE = "activateSince";
+    private static final String ATTR_UNTIL = "activateUntil";
+
+    private static final String WEBABLE = "{" + SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL + "}" + SomeCoModel.ASPECT_SC_WEBABLE;
+
+    private static final String ACTIVATE_QUERY = "+ASPECT:\"" + WEBABLE + "\" -@sc\\:isActive:true"
+            + " -@sc\\:publishUntil:[MIN TO NOW]";
+
+    private static final String DEACTIVATE_QUERY = "+ASPECT:\"" + WEBABLE + "\" +@sc\\:isActive:true"
+            + " +@sc\\:publishUntil:[MIN TO NOW]";
+
+    private static final QName PROP_IS_ACTIVE = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE);
+    private static final QName PROP_PUBLISH_FROM = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_PUBLISH_FROM);
+    private static final QName PROP_PUBLISH_UNTIL = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_PUBLISH_UNTIL);
+
+    // Dependencies
+    private NodeService nodeService;
+    private SearchService searchService;
+    private TransactionService transactionService;
+    private AttributeService attributeService;
+    private SetWebFlag setWebFlag;
+
+    // Configuration
+    private int batchSize = 500;
+    private int maxBatches = 20;
+
+    private static Log logger = LogFactory.getLog(WebFlagScheduler.class);
+
+    /**
+     * Deactivates the expired nodes, then activates the ones whose window has
+     * opened.
+     */
+    public void execute() {
+        AuthenticationUtil.runAsSystem(() -> {
+            long start = System.currentTimeMillis();
+            int deactivated = process(false);
+            int activated = process(true);
+            if (logger.isInfoEnabled() && (activated > 0 || deactivated > 0)) {
+                logger.info("Activated " + activated + " and deactivated " + deactivated + " node(s) in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Runs one pass and returns the number of nodes changed.
+     */
+    private int process(final boolean activate) {
+        final String phase = activate ? "activate" : "deactivate";
+        final Date now = new Date();
+
+        Long checkpoint = transactionService.getRetryingTransactionHelper().doInTransaction(
+                () -> (Long)attributeService.getAttribute(ATTR_APP, ATTR_NAME, phase), true, true);
+        long lastId = checkpoint == null ? 0L : checkpoint;
+        if (checkpoint != null && logger.isDebugEnabled()) logger.debug("Resuming " + phase + " after node " + lastId);
+
+        final Window window = activate ? getWindow(checkpoint != null, now) : null;
+
+        int changed = 0;
+        for (int batch = 0; batch < maxBatches; batch++) {
+            final List<NodeRef> nodeRefs = find(activate, window, lastId);
+            if (nodeRefs.isEmpty()) {
+                final long finishedId = lastId;
+                transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                    attributeService.removeAttribute(ATTR_APP, ATTR_NAME, phase);
+                    return null;
+                }, false, true);
+                if (logger.isDebugEnabled()) logger.debug("Finished " + phase + " at node " + finishedId);
+                return changed;
+            }
+
+            final long fromId = lastId;
+            long[] result = transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                long maxId = fromId;
+                long count = 0;
+                for (NodeRef nodeRef : nodeRefs) {
+                    // deleted nodes still have a status, so a batch of them
+                    // moves the checkpoint on too
+                    Status status = nodeService.getNodeStatus(nodeRef);
+                    if (status != null && status.getDbId() > maxId) {
+                        maxId = status.getDbId();
+                    }
+                    if (status == null || status.isDeleted()) {
+                        continue;
+                    }
+                    // the index may be behind, so check the node itself
+                    if (isDue(nodeRef, activate, window, now)) {
+                        setWebFlag.setWebFlag(nodeRef, activate);
+                        count++;
+                    }
+                }
+                attributeService.setAttribute(Long.valueOf(maxId), ATTR_APP, ATTR_NAME, phase);
+                return new long[] { maxId, count };
+            }, false, true);
+
+            changed += (int)result[1];
+            if (result[0] == lastId) {
+                // nothing in the batch moved the checkpoint on
+                logger.warn("Stopped " + phase + " at node " + lastId + ", the search returned no newer nodes");
+                return changed;
+            }
+            lastId = result[0];
+        }
+
+        if (logger.isDebugEnabled()) logger.debug("Paused " + phase + " at node " + lastId + " after " + maxBatches + " batches");
+        return changed;
+    }
+
+    /**
+     * Returns the publishFrom window of the activate pass. A new pass starts
+     * where the last one ended and runs up to now; a resumed pass keeps the
+     * window it started with.
+     */
+    private Window getWindow(final boolean resuming, final Date now) {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            Long since = (Long)attributeService.getAttribute(ATTR_APP, ATTR_NAME, ATTR_SINCE);
+            Long until = (Long)attributeService.getAttribute(ATTR_APP, ATTR_NAME, ATTR_UNTIL);
+            if (resuming && until != null) {
+                return new Window(since, until);
+            }
+            // the end of the last pass, or nothing on the very first one
+            since = until;
+            until = now.getTime();
+            if (since == null) {
+                attributeService.removeAttribute(ATTR_APP, ATTR_NAME, ATTR_SINCE);
+            } else {
+                attributeService.setAttribute(since, ATTR_APP, ATTR_NAME, ATTR_SINCE);
+            }
+            attributeService.setAttribute(until, ATTR_APP, ATTR_NAME, ATTR_UNTIL);
+            if (logger.isDebugEnabled()) logger.debug("Activating nodes published after " + since + " up to " + until);
+            return new Window(since, until);
+        }, false, true);
+    }
+
+    private List<NodeRef> find(final boolean activate, final Window window, final long afterId) {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+            String query;
+            if (activate) {
+                String from = window.since == null ? "MIN" : "\"" + ISO8601DateFormat.format(new Date(window.since + 1)) + "\"";
+                String to = "\"" + ISO8601DateFormat.format(new Date(window.until)) + "\"";
+                query = ACTIVATE_QUERY + " +@sc\\:publishFrom:[" + from + " TO " + to + "]";
+            } else {
+                query = DEACTIVATE_QUERY;
+            }
+            SearchParameters sp = new SearchParameters();
+            sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+            sp.setLanguage(SearchService.LANGUAGE_LUCENE);
+            sp.setQuery(query + " +@sys\\:node-dbid:[" + (afterId + 1) + " TO MAX]");
+            sp.addSort("@" + ContentModel.PROP_NODE_DBID, true);
+            sp.setMaxItems(batchSize);
+            ResultSet results = searchService.query(sp);
+            try {
+                return results.getNodeRefs();
+            } finally {
+                results.close();
+            }
+        }, true, true);
+    }
+
+    private boolean isDue(NodeRef nodeRef, boolean activate, Window window, Date now) {
+        Serializable isActive = nodeService.getProperty(nodeRef, PROP_IS_ACTIVE);
+        Date publishFrom = (Date)nodeService.getProperty(nodeRef, PROP_PUBLISH_FROM);
+        Date publishUntil = (Date)nodeService.getProperty(nodeRef, PROP_PUBLISH_UNTIL);
+        boolean expired = publishUntil != null && !publishUntil.after(now);
+        if (activate) {
+            return !Boolean.TRUE.equals(isActive) && publishFrom != null && window.contains(publishFrom.getTime()) && !expired;
+        }
+        return Boolean.TRUE.equals(isActive) && expired;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setSearchService(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public void setAttributeService(AttributeService attributeService) {
+        this.attributeService = attributeService;
+    }
+
+    public void setSetWebFlag(SetWebFlag setWebFlag) {
+        this.setWebFlag = setWebFlag;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxBatches(int maxBatches) {
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * publishFrom times after since, if there is one, up to and including
+     * until.
+     */
+    private static class Window {
+        private final Long since;
+        private final long until;
+
+        private Window(Long since, long until) {
+            this.since = since;
+            this.until = until;
+        }
+
+        private boolean contains(long time) {
+            return (since == null || time > since) && time <= until;
+        }
+    }
+
+}
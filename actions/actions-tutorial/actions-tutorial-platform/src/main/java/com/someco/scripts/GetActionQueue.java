@@ -0,0 +1,36 @@
+package com.someco.scripts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import com.someco.action.OrderedActionQueue;
+
+/**
+ * This is the controller for the action-queue.get web script. It hands the
+ * action queue of this server to the template, which reads its counters.
+ */
+public class GetActionQueue extends DeclarativeWebScript {
+
+    private OrderedActionQueue actionQueue;
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache) {
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("queue", actionQueue);
+        return model;
+    }
+
+    public OrderedActionQueue getActionQueue() {
+        return actionQueue;
+    }
+
+    public void setActionQueue(OrderedActionQueue actionQueue) {
+        this.actionQueue = actionQueue;
+    }
+
+}
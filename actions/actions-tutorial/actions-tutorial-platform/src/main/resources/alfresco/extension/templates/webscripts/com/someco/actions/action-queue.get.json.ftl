@@ -0,0 +1,12 @@
+{"queue" :
+        {
+         "depth" : ${queue.queueDepth?c},
+         "executed" : ${queue.executedCount?c},
+         "failed" : ${queue.failedCount?c},
+         "compensated" : ${queue.compensatedCount?c},
+         "coalesced" : ${queue.coalescedCount?c},
+         "averageWaitMillis" : ${queue.averageWaitMillis?c},
+         "maxWaitMillis" : ${queue.maxWaitMillis?c},
+         "averageExecutionMillis" : ${queue.averageExecutionMillis?c}
+        }
+}
@@ -0,0 +1,133 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertEquals;
+
+import com.someco.behavior.AsyncRatingAggregator;
+import com.someco.behavior.RatingAggregateStore;
+import com.someco.behavior.RatingDelta;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks the write-behind aggregator against a store of its own. The ratings
+ * are created with the rating behavior off, so the aggregates only change
+ * through the deltas the test submits.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class AsyncRatingAggregatorIT extends BaseIT {
+
+    static Logger log = Logger.getLogger(AsyncRatingAggregatorIT.class);
+
+    private static final String RATER = "jpotts";
+
+    @Test
+    public void queueFullAndDrainTest() throws InterruptedException {
+        final NodeRef rateable = createRatedNode(3);
+        AsyncRatingAggregator aggregator = createAggregator(new FailingAggregateStore(), 1);
+
+        try {
+            createRatingQuietly(rateable, 4, RATER);
+            aggregator.submit(rateable, RatingDelta.forRating(4, 1));
+            assertEquals(1, aggregator.getQueueSize());
+            assertSummary(rateable, 3, 1);
+
+            // no room left, so this one is written by the submitting thread
+            createRatingQuietly(rateable, 5, RATER);
+            aggregator.submit(rateable, RatingDelta.forRating(5, 1));
+            assertEquals(1, aggregator.getQueueSize());
+            assertSummary(rateable, 8, 2);
+
+            // stopping writes what is still queued
+            aggregator.destroy();
+            assertEquals(0, aggregator.getQueueSize());
+            assertSummary(rateable, 12, 3);
+        } finally {
+            deleteNodes(rateable);
+        }
+    }
+
+    @Test
+    public void dirtyNodeRecomputeTest() throws InterruptedException {
+        final NodeRef rateable = createRatedNode(3);
+        FailingAggregateStore store = new FailingAggregateStore();
+        AsyncRatingAggregator aggregator = createAggregator(store, 10);
+
+        try {
+            createRatingQuietly(rateable, 4, RATER);
+            aggregator.submit(rateable, RatingDelta.forRating(4, 1));
+
+            store.failing = true;
+            aggregator.flush();
+            assertEquals(1, aggregator.getDirtyCount());
+            assertSummary(rateable, 3, 1);
+
+            // the lost delta is made up for by reading all the ratings again
+            store.failing = false;
+            createRatingQuietly(rateable, 5, RATER);
+            aggregator.flush();
+            assertEquals(0, aggregator.getDirtyCount());
+            assertSummary(rateable, 12, 3);
+        } finally {
+            aggregator.destroy();
+            deleteNodes(rateable);
+        }
+    }
+
+    /**
+     * Creates an aggregator that only writes when flushed or when its queue
+     * is full.
+     */
+    private AsyncRatingAggregator createAggregator(RatingAggregateStore store, int queueCapacity) {
+        store.setNodeService(getServiceRegistry().getNodeService());
+        AsyncRatingAggregator aggregator = new AsyncRatingAggregator();
+        aggregator.setAggregateStore(store);
+        aggregator.setTransactionService(getServiceRegistry().getTransactionService());
+        aggregator.setQueueCapacity(queueCapacity);
+        aggregator.setWorkerThreads(1);
+        aggregator.setFlushInterval(60L * 60L * 1000L);
+        aggregator.setOfferTimeout(10);
+        aggregator.init();
+        return aggregator;
+    }
+
+    /**
+     * Creates a rateable node with one rating and aggregates that match it.
+     */
+    private NodeRef createRatedNode(int rating) {
+        final NodeRef rateable = createRateableNode();
+        createRatingQuietly(rateable, rating, RATER);
+        final RatingAggregateStore store = new RatingAggregateStore();
+        store.setNodeService(getServiceRegistry().getNodeService());
+        getTransactionHelper().doInTransaction(() -> {
+            store.recompute(rateable);
+            return null;
+        }, false, true);
+        return rateable;
+    }
+
+    private void assertSummary(final NodeRef rateable, final int total, final int count) {
+        getTransactionHelper().doInTransaction(() -> {
+            assertEquals(total, getServiceRegistry().getNodeService().getProperty(rateable, PROP_TOTAL_QNAME));
+            assertEquals(count, getServiceRegistry().getNodeService().getProperty(rateable, PROP_COUNT_QNAME));
+            return null;
+        }, true, true);
+    }
+
+    /**
+     * Store whose writes can be made to fail.
+     */
+    private static class FailingAggregateStore extends RatingAggregateStore {
+        private volatile boolean failing;
+
+        @Override
+        public void apply(NodeRef parentRef, RatingDelta delta) {
+            if (failing) {
+                throw new IllegalStateException("Aggregate writes are switched off for the test");
+            }
+            super.apply(parentRef, delta);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import org.alfresco.model.ContentModel;
 import org.alfresco.rad.test.AbstractAlfrescoIT;
 import org.alfresco.repo.content.MimetypeMap;
 import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
@@ -17,6 +19,7 @@ import org.junit.After;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.Map;
 
 import static org.alfresco.service.namespace.QName.createQName;
@@ -42,6 +45,9 @@ public class BaseIT extends AbstractAlfrescoIT {
     final QName PROP_COUNT_QNAME = QName.createQName(
             SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
             SomeCoRatingsModel.PROP_RATING_COUNT);
+    final QName PROP_HISTOGRAM_QNAME = QName.createQName(
+            SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
+            SomeCoRatingsModel.PROP_RATING_HISTOGRAM);
 
     String getFilename() {
         String timeStamp = Long.toString(System.currentTimeMillis());
@@ -113,6 +119,90 @@ public class BaseIT extends AbstractAlfrescoIT {
         }
     }
 
+    /**
+     * Create a content node with the scr:rateable aspect in a transaction of
+     * its own, so that it is committed when this returns
+     *
+     * @return the Node Reference for the new rateable node
+     */
+    NodeRef createRateableNode() {
+        return getTransactionHelper().doInTransaction(() -> {
+            NodeRef rateable = createNode("Rateable (" + System.nanoTime() + ")", ContentModel.TYPE_CONTENT, new HashMap<QName, Serializable>());
+            getServiceRegistry().getNodeService().addAspect(rateable,
+                    QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASPECT_SCR_RATEABLE), null);
+            return rateable;
+        }, false, true);
+    }
+
+    /**
+     * Create a rating as a child of the node using the scr:ratings child
+     * association. The association is named by timestamp, as ratings were
+     * before the rater index.
+     *
+     * @param nodeRef the rateable node
+     * @param rating the rating value
+     * @param rater the user name of the rater
+     * @return the Node Reference for the new rating
+     */
+    NodeRef createRating(NodeRef nodeRef, int rating, String rater) {
+        String name = "Rating (" + System.nanoTime() + ")";
+        Map<QName, Serializable> contentProps = new HashMap<QName, Serializable>();
+        contentProps.put(ContentModel.PROP_NAME, name);
+        contentProps.put(PROP_RATING_QNAME, rating);
+        contentProps.put(PROP_RATER_QNAME, rater);
+
+        ChildAssociationRef association = getServiceRegistry().getNodeService().createNode(
+                nodeRef,
+                QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATINGS),
+                QName.createQName(NamespaceService.CONTENT_MODEL_PREFIX, name),
+                QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING),
+                contentProps);
+
+        return association.getChildRef();
+    }
+
+    /**
+     * Create a rating in a transaction of its own with the rating behavior
+     * off, so the aggregates of the node are left as they are
+     *
+     * @param nodeRef the rateable node
+     * @param rating the rating value
+     * @param rater the user name of the rater
+     * @return the Node Reference for the new rating
+     */
+    NodeRef createRatingQuietly(final NodeRef nodeRef, final int rating, final String rater) {
+        final BehaviourFilter behaviourFilter = (BehaviourFilter) getApplicationContext().getBean("policyBehaviourFilter");
+        final QName ratingType = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING);
+        return getTransactionHelper().doInTransaction(() -> {
+            behaviourFilter.disableBehaviour(ratingType);
+            try {
+                return createRating(nodeRef, rating, rater);
+            } finally {
+                behaviourFilter.enableBehaviour(ratingType);
+            }
+        }, false, true);
+    }
+
+    /**
+     * Delete the nodes in a transaction of its own
+     *
+     * @param nodeRefs the nodes to delete
+     */
+    void deleteNodes(final NodeRef... nodeRefs) {
+        getTransactionHelper().doInTransaction(() -> {
+            for (NodeRef toDelete : nodeRefs) {
+                if (getServiceRegistry().getNodeService().exists(toDelete)) {
+                    getServiceRegistry().getNodeService().deleteNode(toDelete);
+                }
+            }
+            return null;
+        }, false, true);
+    }
+
+    RetryingTransactionHelper getTransactionHelper() {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+    }
+
     /**
      * Get the node reference for the /Company Home top folder in Alfresco.
      * Use the standard node locator service.
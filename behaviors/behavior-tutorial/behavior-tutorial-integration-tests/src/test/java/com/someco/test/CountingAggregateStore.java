@@ -0,0 +1,41 @@
+package com.someco.test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.someco.behavior.RatingAggregateStore;
+import com.someco.behavior.RatingDelta;
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Aggregate store that counts the writes made per rateable node, so tests can
+ * check how often the aggregates were touched.
+ */
+class CountingAggregateStore extends RatingAggregateStore {
+
+    private final Map<NodeRef, AtomicInteger> applies = new ConcurrentHashMap<>();
+    private final Map<NodeRef, AtomicInteger> recomputes = new ConcurrentHashMap<>();
+
+    @Override
+    public void apply(NodeRef parentRef, RatingDelta delta) {
+        applies.computeIfAbsent(parentRef, k -> new AtomicInteger()).incrementAndGet();
+        super.apply(parentRef, delta);
+    }
+
+    @Override
+    public void recompute(NodeRef parentRef) {
+        recomputes.computeIfAbsent(parentRef, k -> new AtomicInteger()).incrementAndGet();
+        super.recompute(parentRef);
+    }
+
+    int getApplies(NodeRef parentRef) {
+        AtomicInteger count = applies.get(parentRef);
+        return count == null ? 0 : count.get();
+    }
+
+    int getRecomputes(NodeRef parentRef) {
+        AtomicInteger count = recomputes.get(parentRef);
+        return count == null ? 0 : count.get();
+    }
+}
@@ -4,16 +4,16 @@ import static org.alfresco.service.namespace.QName.createQName;
 import static org.junit.Assert.assertEquals;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.someco.behavior.RaterIndex;
 import com.someco.model.SomeCoRatingsModel;
 import org.alfresco.model.ContentModel;
 import org.alfresco.rad.test.AlfrescoTestRunner;
-import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.apache.log4j.Logger;
 import org.junit.Test;
@@ -60,31 +60,54 @@ public class RatingBehaviorIT extends BaseIT {
         assertEquals(nodeService.getProperty(this.nodeRef, PROP_AVG_RATING_QNAME), 2.0);
         assertEquals(nodeService.getProperty(this.nodeRef, PROP_TOTAL_QNAME), 4);
         assertEquals(nodeService.getProperty(this.nodeRef, PROP_COUNT_QNAME), 2);
+        assertEquals(Arrays.asList(1, 0, 1, 0, 0), nodeService.getProperty(this.nodeRef, PROP_HISTOGRAM_QNAME));
     }
 
-    public NodeRef createRating(NodeRef nodeRef, int rating, String rater) {
+    @Test
+    public void ratingRepairTest() {
+        final String RATER = "jpotts";
+
+        NodeService nodeService = getServiceRegistry().getNodeService();
+
+        Map<QName, Serializable> nodeProperties = new HashMap<>();
+        this.nodeRef = createNode(getFilename(), ContentModel.TYPE_CONTENT, nodeProperties);
+
+        QName aspectQName = createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASPECT_SCR_RATEABLE);
+        nodeService.addAspect(nodeRef, aspectQName, null);
+
+        createRating(this.nodeRef, 4, RATER);
+        createRating(this.nodeRef, 2, RATER);
+
+        // wipe out the stored aggregates so the next rating has to rescan
+        nodeService.removeProperty(this.nodeRef, PROP_TOTAL_QNAME);
+        nodeService.removeProperty(this.nodeRef, PROP_COUNT_QNAME);
+
+        createRating(this.nodeRef, 3, RATER);
+
+        assertEquals(3.0, nodeService.getProperty(this.nodeRef, PROP_AVG_RATING_QNAME));
+        assertEquals(9, nodeService.getProperty(this.nodeRef, PROP_TOTAL_QNAME));
+        assertEquals(3, nodeService.getProperty(this.nodeRef, PROP_COUNT_QNAME));
+        assertEquals(Arrays.asList(0, 1, 1, 1, 0), nodeService.getProperty(this.nodeRef, PROP_HISTOGRAM_QNAME));
+    }
+
+    @Test
+    public void raterIndexLegacyRatingTest() {
+        final String RATER = "jpotts";
+
         NodeService nodeService = getServiceRegistry().getNodeService();
+        RaterIndex raterIndex = (RaterIndex) getApplicationContext().getBean("behavior-tutorial-platform_raterIndex");
+
+        Map<QName, Serializable> nodeProperties = new HashMap<>();
+        this.nodeRef = createNode(getFilename(), ContentModel.TYPE_CONTENT, nodeProperties);
+
+        QName aspectQName = createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASPECT_SCR_RATEABLE);
+        nodeService.addAspect(nodeRef, aspectQName, null);
+
+        // createRating names the association by timestamp, as ratings were before the rater index
+        NodeRef rating = createRating(this.nodeRef, 4, RATER);
 
-        // assign name
-	    String name = "Rating (" + System.currentTimeMillis() + ")";
-	    Map<QName, Serializable> contentProps = new HashMap<QName, Serializable>();
-	    contentProps.put(ContentModel.PROP_NAME, name);
-	    contentProps.put(PROP_RATING_QNAME, rating);
-	    contentProps.put(PROP_RATER_QNAME, rater);
-
-	    // create rating as a child of the content node using the scr:ratings child association
-	    ChildAssociationRef association = nodeService.createNode(
-	    				nodeRef,
-	                    QName.createQName(
-	                    		SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
-	                    		SomeCoRatingsModel.ASSN_SCR_RATINGS),
-	                    QName.createQName(NamespaceService.CONTENT_MODEL_PREFIX, name),
-	                    QName.createQName(
-	                    		SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
-	                    		SomeCoRatingsModel.TYPE_SCR_RATING),
-	                    contentProps
-	                    );
-
-	    return association.getChildRef();
+        assertEquals(rating, raterIndex.findRating(this.nodeRef, RATER));
+        assertEquals(4, raterIndex.getRating(this.nodeRef, RATER));
+        assertEquals(0, raterIndex.getRating(this.nodeRef, "someoneElse"));
     }
 }
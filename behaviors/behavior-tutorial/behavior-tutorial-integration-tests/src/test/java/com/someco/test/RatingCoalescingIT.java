@@ -0,0 +1,74 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.someco.behavior.Rating;
+import com.someco.behavior.RatingAggregateStore;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that with coalescing on, the ratings created in one transaction are
+ * written to each parent's aggregates once, when the transaction commits.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class RatingCoalescingIT extends BaseIT {
+
+    static Logger log = Logger.getLogger(RatingCoalescingIT.class);
+
+    private static final String RATER = "jpotts";
+
+    @Test
+    public void coalescePerParentTest() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        Rating rating = (Rating) getApplicationContext().getBean("behavior-tutorial-platform_ratingBehavior");
+
+        final NodeRef first = createRateableNode();
+        final NodeRef second = createRateableNode();
+
+        boolean coalesce = rating.isCoalesce();
+        RatingAggregateStore store = rating.getAggregateStore();
+        CountingAggregateStore countingStore = new CountingAggregateStore();
+        countingStore.setNodeService(nodeService);
+        rating.setAggregateStore(countingStore);
+        rating.setCoalesce(true);
+
+        try {
+            getTransactionHelper().doInTransaction(() -> {
+                createRating(first, 1, RATER);
+                createRating(first, 2, RATER);
+                createRating(first, 3, RATER);
+                createRating(second, 4, RATER);
+                createRating(second, 5, RATER);
+
+                // nothing is written until the transaction commits
+                assertNull(nodeService.getProperty(first, PROP_COUNT_QNAME));
+                assertNull(nodeService.getProperty(second, PROP_COUNT_QNAME));
+                assertEquals(0, countingStore.getApplies(first));
+                return null;
+            }, false, true);
+
+            assertEquals(1, countingStore.getApplies(first));
+            assertEquals(1, countingStore.getApplies(second));
+
+            getTransactionHelper().doInTransaction(() -> {
+                assertEquals(3, nodeService.getProperty(first, PROP_COUNT_QNAME));
+                assertEquals(6, nodeService.getProperty(first, PROP_TOTAL_QNAME));
+                assertEquals(2.0, nodeService.getProperty(first, PROP_AVG_RATING_QNAME));
+                assertEquals(2, nodeService.getProperty(second, PROP_COUNT_QNAME));
+                assertEquals(9, nodeService.getProperty(second, PROP_TOTAL_QNAME));
+                assertEquals(4.5, nodeService.getProperty(second, PROP_AVG_RATING_QNAME));
+                return null;
+            }, true, true);
+        } finally {
+            rating.setCoalesce(coalesce);
+            rating.setAggregateStore(store);
+            deleteNodes(first, second);
+        }
+    }
+}
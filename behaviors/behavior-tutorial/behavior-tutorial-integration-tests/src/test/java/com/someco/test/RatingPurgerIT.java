@@ -0,0 +1,79 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.someco.behavior.Rating;
+import com.someco.behavior.RatingAggregateStore;
+import com.someco.behavior.RatingPurger;
+import com.someco.model.SomeCoRatingsModel;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that the purger deletes all the ratings of a node in chunks without
+ * the rating behavior updating the aggregates, and resets them once at the
+ * end.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class RatingPurgerIT extends BaseIT {
+
+    static Logger log = Logger.getLogger(RatingPurgerIT.class);
+
+    private static final String RATER = "jpotts";
+
+    @Test
+    public void chunkedPurgeTest() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        Rating rating = (Rating) getApplicationContext().getBean("behavior-tutorial-platform_ratingBehavior");
+
+        final NodeRef rateable = createRateableNode();
+        getTransactionHelper().doInTransaction(() -> {
+            for (int i = 0; i < 25; i++) {
+                createRating(rateable, i % 5 + 1, RATER);
+            }
+            return null;
+        }, false, true);
+
+        CountingAggregateStore purgerStore = new CountingAggregateStore();
+        purgerStore.setNodeService(nodeService);
+        RatingPurger purger = new RatingPurger();
+        purger.setNodeService(nodeService);
+        purger.setTransactionService(getServiceRegistry().getTransactionService());
+        purger.setBehaviourFilter((BehaviourFilter) getApplicationContext().getBean("policyBehaviourFilter"));
+        purger.setAggregateStore(purgerStore);
+        purger.setChunkSize(10);
+
+        // watches what the rating behavior writes while the purge runs
+        RatingAggregateStore store = rating.getAggregateStore();
+        CountingAggregateStore behaviorStore = new CountingAggregateStore();
+        behaviorStore.setNodeService(nodeService);
+        rating.setAggregateStore(behaviorStore);
+
+        try {
+            assertEquals(25, purger.deleteAll(rateable));
+
+            assertEquals("The rating behavior must be off while purging", 0, behaviorStore.getApplies(rateable));
+            assertEquals(1, purgerStore.getRecomputes(rateable));
+
+            getTransactionHelper().doInTransaction(() -> {
+                QName ratingsAssoc = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATINGS);
+                assertTrue(nodeService.getChildAssocs(rateable, ratingsAssoc, RegexQNamePattern.MATCH_ALL).isEmpty());
+                assertEquals(0, nodeService.getProperty(rateable, PROP_COUNT_QNAME));
+                assertEquals(0, nodeService.getProperty(rateable, PROP_TOTAL_QNAME));
+                assertEquals(0.0, nodeService.getProperty(rateable, PROP_AVG_RATING_QNAME));
+                return null;
+            }, true, true);
+        } finally {
+            rating.setAggregateStore(store);
+            deleteNodes(rateable);
+        }
+    }
+}
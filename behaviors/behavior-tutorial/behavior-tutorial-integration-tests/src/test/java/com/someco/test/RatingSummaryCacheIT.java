@@ -0,0 +1,58 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.someco.behavior.RatingSummaryCache;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that a cached rating summary is served until the transaction that
+ * changed the node's aggregates commits, and is read again after that.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class RatingSummaryCacheIT extends BaseIT {
+
+    static Logger log = Logger.getLogger(RatingSummaryCacheIT.class);
+
+    private static final String RATER = "jpotts";
+
+    @Test
+    public void invalidateAfterCommitTest() {
+        final RatingSummaryCache cache = (RatingSummaryCache) getApplicationContext().getBean("behavior-tutorial-platform_ratingSummaryCache");
+
+        final NodeRef rateable = createRateableNode();
+
+        try {
+            getTransactionHelper().doInTransaction(() -> createRating(rateable, 4, RATER), false, true);
+
+            long misses = cache.getMisses();
+            long hits = cache.getHits();
+            assertEquals(1, getCount(cache, rateable));
+            assertEquals(misses + 1, cache.getMisses());
+            assertEquals(1, getCount(cache, rateable));
+            assertEquals(hits + 1, cache.getHits());
+
+            long invalidations = cache.getInvalidations();
+            getTransactionHelper().doInTransaction(() -> {
+                createRating(rateable, 2, RATER);
+                // the new aggregates are not committed, so the cached ones still stand
+                assertEquals(1, cache.get(rateable).getCount());
+                return null;
+            }, false, true);
+
+            assertTrue(cache.getInvalidations() > invalidations);
+            assertEquals(2, getCount(cache, rateable));
+        } finally {
+            deleteNodes(rateable);
+        }
+    }
+
+    private int getCount(final RatingSummaryCache cache, final NodeRef rateable) {
+        return getTransactionHelper().doInTransaction(() -> cache.get(rateable).getCount(), true, true);
+    }
+}
@@ -0,0 +1,129 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.someco.behavior.RatingDelta;
+import com.someco.behavior.RatingSummary;
+import com.someco.behavior.ShardedRatingAggregateStore;
+import com.someco.model.SomeCoRatingsModel;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that the sharded store adds its shards to the stored aggregates on
+ * read, and that folding moves them into the scr:rateable properties.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class ShardedRatingAggregateStoreIT extends BaseIT {
+
+    static Logger log = Logger.getLogger(ShardedRatingAggregateStoreIT.class);
+
+    private static final QName ASSOC_SHARDS = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATING_SHARDS);
+    private static final QName PROP_SHARD_TOTAL = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_SHARD_TOTAL);
+    private static final QName PROP_SHARD_COUNT = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_SHARD_COUNT);
+    private static final QName PROP_SHARD_HISTOGRAM = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_SHARD_HISTOGRAM);
+
+    @Test
+    public void readAndFoldTest() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final ShardedRatingAggregateStore store = new ShardedRatingAggregateStore();
+        store.setNodeService(nodeService);
+        store.setTransactionService(getServiceRegistry().getTransactionService());
+        store.setShardCount(4);
+        store.setFoldInterval(60L * 60L * 1000L);
+        store.init();
+
+        final NodeRef rateable = createRateableNode();
+
+        try {
+            // the base values come from the ratings already there
+            createRatingQuietly(rateable, 1, "rater0");
+            getTransactionHelper().doInTransaction(() -> {
+                store.recompute(rateable);
+                return null;
+            }, false, true);
+
+            final String[] raters = {"rater1", "rater2", "rater3", "rater4", "rater5"};
+            final int[] ratings = {5, 4, 4, 2, 5};
+            for (int i = 0; i < raters.length; i++) {
+                createRatingQuietly(rateable, ratings[i], raters[i]);
+                final RatingDelta delta = RatingDelta.forRating(ratings[i], 1);
+                delta.setShardKey(raters[i]);
+                getTransactionHelper().doInTransaction(() -> {
+                    store.apply(rateable, delta);
+                    return null;
+                }, false, true);
+            }
+
+            getTransactionHelper().doInTransaction(() -> {
+                RatingSummary summary = store.read(rateable);
+                assertEquals(21, summary.getTotal());
+                assertEquals(6, summary.getCount());
+                assertEquals(Arrays.asList(1, 1, 0, 2, 2), toList(summary.getHistogram()));
+
+                // the writes went to the shards, not to the node
+                assertEquals(1, nodeService.getProperty(rateable, PROP_TOTAL_QNAME));
+                assertEquals(1, nodeService.getProperty(rateable, PROP_COUNT_QNAME));
+                int shardCount = 0;
+                for (NodeRef shardRef : getShards(rateable)) {
+                    shardCount += (Integer) nodeService.getProperty(shardRef, PROP_SHARD_COUNT);
+                }
+                assertEquals(5, shardCount);
+                return null;
+            }, true, true);
+
+            getTransactionHelper().doInTransaction(() -> {
+                store.fold(rateable);
+                return null;
+            }, false, true);
+
+            getTransactionHelper().doInTransaction(() -> {
+                assertEquals(21, nodeService.getProperty(rateable, PROP_TOTAL_QNAME));
+                assertEquals(6, nodeService.getProperty(rateable, PROP_COUNT_QNAME));
+                assertEquals(3.5, nodeService.getProperty(rateable, PROP_AVG_RATING_QNAME));
+                assertEquals(Arrays.asList(1, 1, 0, 2, 2), nodeService.getProperty(rateable, PROP_HISTOGRAM_QNAME));
+                for (NodeRef shardRef : getShards(rateable)) {
+                    assertEquals(0, nodeService.getProperty(shardRef, PROP_SHARD_TOTAL));
+                    assertEquals(0, nodeService.getProperty(shardRef, PROP_SHARD_COUNT));
+                    assertEquals(Arrays.asList(0, 0, 0, 0, 0), nodeService.getProperty(shardRef, PROP_SHARD_HISTOGRAM));
+                }
+
+                RatingSummary summary = store.read(rateable);
+                assertEquals(21, summary.getTotal());
+                assertEquals(6, summary.getCount());
+                return null;
+            }, true, true);
+        } finally {
+            store.destroy();
+            deleteNodes(rateable);
+        }
+    }
+
+    private List<NodeRef> getShards(NodeRef rateable) {
+        List<ChildAssociationRef> assocs = getServiceRegistry().getNodeService().getChildAssocs(rateable, ASSOC_SHARDS, RegexQNamePattern.MATCH_ALL);
+        List<NodeRef> shardRefs = new ArrayList<>(assocs.size());
+        for (ChildAssociationRef assoc : assocs) {
+            shardRefs.add(assoc.getChildRef());
+        }
+        return shardRefs;
+    }
+
+    private static List<Integer> toList(int[] histogram) {
+        List<Integer> values = new ArrayList<>(histogram.length);
+        for (int bucket : histogram) {
+            values.add(bucket);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,150 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.someco.behavior.WhitepaperFeed;
+import com.someco.model.SomeCoModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that the whitepaper feed follows whitepapers as they are activated
+ * and deactivated, and only pages the ones the caller can read.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class WhitepaperFeedIT extends BaseIT {
+
+    private static final QName TYPE_WHITEPAPER = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.TYPE_SC_WHITEPAPER);
+    private static final QName ASPECT_WEBABLE = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.ASPECT_SC_WEBABLE);
+    private static final QName PROP_IS_ACTIVE = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE);
+    private static final QName PROP_PUBLISHED = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_PUBLISHED);
+
+    static Logger log = Logger.getLogger(WhitepaperFeedIT.class);
+
+    private WhitepaperFeed feed;
+    // the first folder on the whitepapers path the test had to create, if any
+    private NodeRef createdFolder;
+    private NodeRef whitepapersFolder;
+
+    @Before
+    public void setUp() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        feed = (WhitepaperFeed) getApplicationContext().getBean("behavior-tutorial-platform_whitepaperFeed");
+
+        whitepapersFolder = getTransactionHelper().doInTransaction(() -> {
+            NodeRef folder = getCompanyHomeNodeRef();
+            for (String name : feed.getWhitepapersPath()) {
+                NodeRef child = nodeService.getChildByName(folder, ContentModel.ASSOC_CONTAINS, name);
+                if (child == null) {
+                    child = createChild(folder, name, ContentModel.TYPE_FOLDER);
+                    if (createdFolder == null) {
+                        createdFolder = child;
+                    }
+                }
+                folder = child;
+            }
+            return folder;
+        }, false, true);
+    }
+
+    @After
+    public void tearDown() {
+        if (createdFolder != null) {
+            getTransactionHelper().doInTransaction(() -> {
+                getServiceRegistry().getNodeService().deleteNode(createdFolder);
+                return null;
+            }, false, true);
+        }
+    }
+
+    @Test
+    public void feedFollowsWebFlagTest() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final NodeRef whitepaper = getTransactionHelper().doInTransaction(() -> createWhitepaper(getFilename()), false, true);
+
+        try {
+            assertTrue(getPage().contains(whitepaper));
+
+            // deactivated directly, not through the web flag actions
+            getTransactionHelper().doInTransaction(() -> {
+                nodeService.setProperty(whitepaper, PROP_IS_ACTIVE, false);
+                return null;
+            }, false, true);
+            assertFalse(getPage().contains(whitepaper));
+
+            getTransactionHelper().doInTransaction(() -> {
+                nodeService.setProperty(whitepaper, PROP_IS_ACTIVE, true);
+                return null;
+            }, false, true);
+            assertTrue(getPage().contains(whitepaper));
+        } finally {
+            deleteNodes(whitepaper);
+        }
+    }
+
+    @Test
+    public void feedFiltersByPermissionTest() {
+        final PermissionService permissionService = getServiceRegistry().getPermissionService();
+        final String guest = AuthenticationUtil.getGuestUserName();
+
+        final NodeRef open = getTransactionHelper().doInTransaction(() -> {
+            NodeRef nodeRef = createWhitepaper("open " + getFilename());
+            permissionService.setPermission(nodeRef, guest, PermissionService.CONSUMER, true);
+            return nodeRef;
+        }, false, true);
+        final NodeRef restricted = getTransactionHelper().doInTransaction(() -> {
+            NodeRef nodeRef = createWhitepaper("restricted " + getFilename());
+            permissionService.setInheritParentPermissions(nodeRef, false);
+            return nodeRef;
+        }, false, true);
+
+        try {
+            List<NodeRef> guestPage = AuthenticationUtil.runAs(this::getPage, guest);
+            assertTrue(guestPage.contains(open));
+            assertFalse(guestPage.contains(restricted));
+
+            assertTrue(getPage().contains(restricted));
+        } finally {
+            deleteNodes(open, restricted);
+        }
+    }
+
+    private List<NodeRef> getPage() {
+        return getTransactionHelper().doInTransaction(() -> feed.getPage(0, Integer.MAX_VALUE, false).getFirst(), true, true);
+    }
+
+    private NodeRef createWhitepaper(String name) {
+        NodeRef nodeRef = createChild(whitepapersFolder, name, TYPE_WHITEPAPER);
+        Map<QName, Serializable> props = new HashMap<>();
+        props.put(PROP_IS_ACTIVE, true);
+        props.put(PROP_PUBLISHED, new Date());
+        getServiceRegistry().getNodeService().addAspect(nodeRef, ASPECT_WEBABLE, props);
+        return nodeRef;
+    }
+
+    private NodeRef createChild(NodeRef parent, String name, QName type) {
+        Map<QName, Serializable> props = new HashMap<>();
+        props.put(ContentModel.PROP_NAME, name);
+        return getServiceRegistry().getNodeService().createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                type, props).getChildRef();
+    }
+}
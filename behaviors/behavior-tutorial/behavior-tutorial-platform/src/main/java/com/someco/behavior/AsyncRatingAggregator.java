@@ -0,0 +1,289 @@
+package com.someco.behavior;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * Write-behind aggregator for rating changes. Committed rating deltas are put
+ * on a bounded queue and flushed periodically by a small pool of workers.
+ * Deltas for the same rateable node are merged before the flush, so each node
+ * is written at most once per flush, in batched transactions.
+ *
+ * When the queue is full the submitting thread waits up to offerTimeout and
+ * then writes its delta itself, which throttles writers under a voting spike
+ * without dropping ratings. Pending deltas are drained on shutdown.
+ *
+ * Deltas are adjustments, so one that fails to write cannot simply be tried
+ * again later. Instead the node is marked dirty and its aggregates are
+ * recomputed from its ratings on the next flush, until that succeeds. Nodes
+ * that are still dirty or queued when the aggregator stops are logged.
+ */
+public class AsyncRatingAggregator {
+
+    // Dependencies
+    private RatingAggregateStore aggregateStore;
+    private TransactionService transactionService;
+
+    // Configuration
+    private int queueCapacity = 10000;
+    private int workerThreads = 2;
+    private int batchSize = 100;
+    private long flushInterval = 1000;
+    private long offerTimeout = 500;
+
+    private BlockingQueue<PendingDelta> queue;
+    private ScheduledExecutorService flushScheduler;
+    private ExecutorService workers;
+    private volatile boolean accepting;
+
+    // nodes whose deltas were lost and that need a recompute
+    private final Set<NodeRef> dirty = Collections.newSetFromMap(new ConcurrentHashMap<NodeRef, Boolean>());
+
+    private Logger logger = Logger.getLogger(AsyncRatingAggregator.class);
+
+    public void init() {
+        if (logger.isDebugEnabled()) logger.debug("Starting rating aggregator, flushing every " + flushInterval + "ms");
+
+        this.queue = new LinkedBlockingQueue<PendingDelta>(queueCapacity);
+
+        TraceableThreadFactory workerFactory = new TraceableThreadFactory();
+        workerFactory.setThreadDaemon(true);
+        workerFactory.setNamePrefix("SomecoRatingAggregator");
+        this.workers = Executors.newFixedThreadPool(workerThreads, workerFactory);
+
+        TraceableThreadFactory schedulerFactory = new TraceableThreadFactory();
+        schedulerFactory.setThreadDaemon(true);
+        schedulerFactory.setNamePrefix("SomecoRatingAggregatorFlush");
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(schedulerFactory);
+        this.flushScheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+
+        this.accepting = true;
+    }
+
+    /**
+     * Hands a committed delta to the aggregator. Must be called outside of the
+     * transaction that produced the delta, typically from afterCommit.
+     */
+    public void submit(NodeRef parentRef, RatingDelta delta) {
+        PendingDelta pending = new PendingDelta(parentRef, delta);
+        boolean queued = false;
+        if (accepting) {
+            try {
+                queued = queue.offer(pending, offerTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (!queued) {
+            if (logger.isDebugEnabled()) logger.debug("Rating queue full or closed, writing delta for " + parentRef + " directly");
+            List<PendingDelta> batch = new ArrayList<PendingDelta>(1);
+            batch.add(pending);
+            writeOrMarkDirty(batch);
+        }
+    }
+
+    /**
+     * Drains everything queued so far, merges it per node and writes it in
+     * batches on the worker pool. Dirty nodes are recomputed in the same
+     * batches. Blocks until all batches are written.
+     */
+    public void flush() throws InterruptedException {
+        List<PendingDelta> drained = new ArrayList<PendingDelta>();
+        queue.drainTo(drained);
+        for (NodeRef parentRef : new ArrayList<NodeRef>(dirty)) {
+            dirty.remove(parentRef);
+            drained.add(new PendingDelta(parentRef, RatingDelta.rescan()));
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+
+        Map<NodeRef, RatingDelta> merged = new LinkedHashMap<NodeRef, RatingDelta>();
+        for (PendingDelta pending : drained) {
+            RatingDelta delta = merged.get(pending.parentRef);
+            if (delta == null) {
+                delta = new RatingDelta();
+                merged.put(pending.parentRef, delta);
+            }
+            delta.merge(pending.delta);
+        }
+
+        if (logger.isDebugEnabled()) logger.debug("Flushing " + drained.size() + " rating delta(s) for " + merged.size() + " node(s)");
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        List<PendingDelta> batch = new ArrayList<PendingDelta>(batchSize);
+        for (Map.Entry<NodeRef, RatingDelta> entry : merged.entrySet()) {
+            batch.add(new PendingDelta(entry.getKey(), entry.getValue()));
+            if (batch.size() == batchSize) {
+                tasks.add(batchTask(batch));
+                batch = new ArrayList<PendingDelta>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            tasks.add(batchTask(batch));
+        }
+
+        try {
+            workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            // unfinished batches are cancelled, so their deltas are lost
+            dirty.addAll(merged.keySet());
+            throw e;
+        }
+    }
+
+    public void destroy() {
+        if (logger.isDebugEnabled()) logger.debug("Stopping rating aggregator, draining " + queue.size() + " queued delta(s)");
+
+        accepting = false;
+        flushScheduler.shutdown();
+        try {
+            flushScheduler.awaitTermination(flushInterval * 2, TimeUnit.MILLISECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+
+        Set<NodeRef> unwritten = new LinkedHashSet<NodeRef>(dirty);
+        for (PendingDelta pending : queue) {
+            unwritten.add(pending.parentRef);
+        }
+        if (!unwritten.isEmpty()) {
+            logger.error("Stopped with rating changes not written, recompute the aggregates of " + unwritten);
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Number of nodes waiting for a recompute because their deltas could not
+     * be written.
+     */
+    public int getDirtyCount() {
+        return dirty.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Failed to flush rating deltas", e);
+        }
+    }
+
+    private Callable<Void> batchTask(final List<PendingDelta> batch) {
+        return () -> {
+            writeOrMarkDirty(batch);
+            return null;
+        };
+    }
+
+    /**
+     * Writes the batch in one transaction. If that fails, each node is written
+     * on its own so one bad node does not cost the others their deltas, and
+     * the nodes that still fail are marked dirty.
+     */
+    private void writeOrMarkDirty(List<PendingDelta> batch) {
+        try {
+            writeBatch(batch);
+            return;
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                markDirty(batch.get(0).parentRef, e);
+                return;
+            }
+            logger.warn("Failed to write " + batch.size() + " rating delta(s), writing them one at a time", e);
+        }
+
+        for (PendingDelta pending : batch) {
+            try {
+                writeBatch(Collections.singletonList(pending));
+            } catch (RuntimeException e) {
+                markDirty(pending.parentRef, e);
+            }
+        }
+    }
+
+    private void markDirty(NodeRef parentRef, RuntimeException e) {
+        dirty.add(parentRef);
+        logger.error("Failed to write rating changes for " + parentRef + ", it will be recomputed on the next flush", e);
+    }
+
+    private void writeBatch(final List<PendingDelta> batch) {
+        final RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
+        AuthenticationUtil.runAsSystem(() -> txnHelper.doInTransaction(() -> {
+            for (PendingDelta pending : batch) {
+                // deleted nodes have no aggregates left to fix
+                if (aggregateStore.getNodeService().exists(pending.parentRef)) {
+                    aggregateStore.apply(pending.parentRef, pending.delta);
+                }
+            }
+            return null;
+        }, false, true));
+    }
+
+    private static class PendingDelta {
+        private final NodeRef parentRef;
+        private final RatingDelta delta;
+
+        private PendingDelta(NodeRef parentRef, RatingDelta delta) {
+            this.parentRef = parentRef;
+            this.delta = delta;
+        }
+    }
+
+    public void setAggregateStore(RatingAggregateStore aggregateStore) {
+        this.aggregateStore = aggregateStore;
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+}
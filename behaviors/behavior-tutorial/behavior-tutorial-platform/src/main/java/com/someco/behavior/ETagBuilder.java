@@ -0,0 +1,98 @@
+package com.someco.behavior;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+/**
+ * Builds a strong HTTP entity tag from the values a response is rendered
+ * from, such as node ids, modification dates and rating aggregates. Equal
+ * values in the same order always give the same tag.
+ */
+public class ETagBuilder {
+
+    private final MessageDigest digest;
+    private Date lastModified;
+
+    public ETagBuilder() {
+        try {
+            this.digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+    public ETagBuilder add(String value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        return this;
+    }
+
+    public ETagBuilder add(long value) {
+        return add(Long.toString(value));
+    }
+
+    /**
+     * Adds a modification date and keeps track of the latest one for the
+     * Last-Modified header.
+     */
+    public ETagBuilder add(Date modified) {
+        if (modified == null) {
+            return add("-");
+        }
+        if (lastModified == null || modified.after(lastModified)) {
+            lastModified = modified;
+        }
+        return add(modified.getTime());
+    }
+
+    public ETagBuilder add(RatingSummary summary) {
+        if (summary == null) {
+            return add("-");
+        }
+        return add(summary.getTotal()).add(summary.getCount());
+    }
+
+    /**
+     * The latest date passed to {@link #add(Date)}, or null if there was none.
+     */
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the entity tag without the surrounding quotes, which is the form
+     * the web script Cache expects. The builder should not be used afterwards.
+     */
+    public String build() {
+        StringBuilder etag = new StringBuilder();
+        for (byte b : digest.digest()) {
+            etag.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return etag.toString();
+    }
+
+    /**
+     * True if the value of an If-None-Match request header matches the tag.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.length() >= 2 && candidate.startsWith("\"") && candidate.endsWith("\"")) {
+                candidate = candidate.substring(1, candidate.length() - 1);
+            }
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.someco.behavior;
+
+import java.util.List;
+
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.ISO9075;
+
+import com.someco.model.SomeCoRatingsModel;
+
+/**
+ * Finds the rating a given user left on a rateable node. Ratings are stored
+ * under an scr:ratings child association whose name is derived from the
+ * rater, so the lookup is a single indexed child association query instead of
+ * a scan of every rating on the node.
+ *
+ * Ratings created before the association name was derived from the rater
+ * are named differently. When the keyed lookup finds nothing, they are found
+ * by their scr:rater property instead.
+ */
+public class RaterIndex {
+
+    // Dependencies
+    private NodeService nodeService;
+
+    /**
+     * The child association name a rating by the given rater is stored under.
+     */
+    public static QName assocQName(String rater) {
+        return QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, "rater_" + ISO9075.encode(rater));
+    }
+
+    /**
+     * Returns the most recent rating node of the rater, or null if the rater
+     * has not rated the node.
+     */
+    public NodeRef findRating(NodeRef nodeRef, String rater) {
+        QName ratingsAssoc = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATINGS);
+        List<ChildAssociationRef> ratings = nodeService.getChildAssocs(nodeRef, ratingsAssoc, assocQName(rater));
+        if (!ratings.isEmpty()) {
+            return ratings.get(ratings.size() - 1).getChildRef();
+        }
+        return findLegacyRating(nodeRef, ratingsAssoc, rater);
+    }
+
+    /**
+     * Looks for a rating stored under an association name that is not derived
+     * from the rater, using a query on the scr:rater property.
+     */
+    private NodeRef findLegacyRating(NodeRef nodeRef, QName ratingsAssoc, String rater) {
+        if (rater == null) {
+            return null;
+        }
+        NodeRef found = null;
+        List<ChildAssociationRef> children = nodeService.getChildAssocsByPropertyValue(nodeRef,
+                QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATER), rater);
+        for (ChildAssociationRef child : children) {
+            if (ratingsAssoc.equals(child.getTypeQName())) {
+                found = child.getChildRef();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the value of the rater's rating on the node, or 0 if there is none.
+     */
+    public int getRating(NodeRef nodeRef, String rater) {
+        NodeRef ratingRef = findRating(nodeRef, rater);
+        if (ratingRef == null) {
+            return 0;
+        }
+        Integer rating = (Integer)nodeService.getProperty(ratingRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING));
+        return rating == null ? 0 : rating;
+    }
+
+    public NodeService getNodeService() {
+        return nodeService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+}
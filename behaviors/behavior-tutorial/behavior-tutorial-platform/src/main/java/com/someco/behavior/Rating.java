@@ -1,12 +1,17 @@
 package com.someco.behavior;
 
-import java.util.List;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.alfresco.repo.node.NodeServicePolicies;
 import org.alfresco.repo.policy.Behaviour;
 import org.alfresco.repo.policy.JavaBehaviour;
 import org.alfresco.repo.policy.PolicyComponent;
 import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
@@ -18,93 +23,152 @@ import com.someco.model.SomeCoRatingsModel;
 
 public class Rating
 	implements NodeServicePolicies.OnDeleteNodePolicy,
-			   NodeServicePolicies.OnCreateNodePolicy {
+			   NodeServicePolicies.OnCreateNodePolicy,
+			   NodeServicePolicies.BeforeDeleteNodePolicy,
+			   NodeServicePolicies.OnUpdatePropertiesPolicy {
+
+	// Transaction resource holding the values of ratings that are about to be deleted
+	private static final String KEY_DELETED_RATINGS = Rating.class.getName() + ".deletedRatings";
+	// Transaction resource holding the changes to apply per parent when coalescing or writing behind
+	private static final String KEY_PENDING_DELTAS = Rating.class.getName() + ".pendingDeltas";
 
 	// Dependencies
     private NodeService nodeService;
     private PolicyComponent policyComponent;
+    private RatingAggregateStore aggregateStore;
+    private AsyncRatingAggregator asyncAggregator;
+
+    // Configuration
+    private boolean incremental = true;
+    private boolean coalesce = false;
 
     // Behaviours
     private Behaviour onCreateNode;
     private Behaviour onDeleteNode;
-    
+    private Behaviour beforeDeleteNode;
+    private Behaviour onUpdateProperties;
+
+    private final CoalescingTransactionListener transactionListener = new CoalescingTransactionListener();
+
     private Logger logger = Logger.getLogger(Rating.class);
-    
+
     public void init() {
     	if (logger.isDebugEnabled()) logger.debug("Initializing rateable behaviors");
-    	
+
         // Create behaviours
         this.onCreateNode = new JavaBehaviour(this, "onCreateNode", NotificationFrequency.EVERY_EVENT);
         this.onDeleteNode = new JavaBehaviour(this, "onDeleteNode", NotificationFrequency.EVERY_EVENT);
+        this.beforeDeleteNode = new JavaBehaviour(this, "beforeDeleteNode", NotificationFrequency.EVERY_EVENT);
+        this.onUpdateProperties = new JavaBehaviour(this, "onUpdateProperties", NotificationFrequency.EVERY_EVENT);
 
         // Bind behaviours to node policies
         this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "onCreateNode"), QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING), this.onCreateNode);
         this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "onDeleteNode"), QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING), this.onDeleteNode);
+        this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "beforeDeleteNode"), QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING), this.beforeDeleteNode);
+        this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "onUpdateProperties"), QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING), this.onUpdateProperties);
     }
-    
+
 	public void onCreateNode(ChildAssociationRef childAssocRef) {
-		if (logger.isDebugEnabled()) logger.debug("Inside onCreateNode");		
-		computeAverage(childAssocRef);
+		if (logger.isDebugEnabled()) logger.debug("Inside onCreateNode");
+		RatingDelta delta = null;
+		if (incremental && RatingAggregateStore.isRatingAssoc(childAssocRef)) {
+			delta = toDelta(childAssocRef.getChildRef(), 1);
+		}
+
+		aggregate(childAssocRef.getParentRef(), delta == null ? RatingDelta.rescan() : delta);
 	}
 
-		
-	public void onDeleteNode(ChildAssociationRef childAssocRef, boolean isNodeArchived) {
-		if (logger.isDebugEnabled()) logger.debug("Inside onDeleteNode");		
-		computeAverage(childAssocRef);		
+	public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after) {
+		QName ratingQName = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING);
+		Integer oldRating = (Integer)before.get(ratingQName);
+		Integer newRating = (Integer)after.get(ratingQName);
+
+		// new ratings are handled by onCreateNode
+		if (oldRating == null || oldRating.equals(newRating)) {
+			return;
+		}
+		if (logger.isDebugEnabled()) logger.debug("Inside onUpdateProperties");
+
+		ChildAssociationRef childAssocRef = nodeService.getPrimaryParent(nodeRef);
+		if (!incremental || newRating == null || !RatingAggregateStore.isRatingAssoc(childAssocRef)) {
+			aggregate(childAssocRef.getParentRef(), RatingDelta.rescan());
+			return;
+		}
+
+		// a changed vote moves the total and the histogram but not the count
+		RatingDelta delta = RatingDelta.forChange(oldRating, newRating);
+		delta.setShardKey((String)after.get(QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATER)));
+		aggregate(childAssocRef.getParentRef(), delta);
 	}
 
-	public void computeAverage(ChildAssociationRef childAssocRef) {
-		if (logger.isDebugEnabled()) logger.debug("Inside computeAverage");
-		// get the parent node
-		NodeRef parentRef = childAssocRef.getParentRef();
-		
-		// check the parent to make sure it has the right aspect
-		if (nodeService.exists(parentRef) && nodeService.hasAspect(parentRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASPECT_SCR_RATEABLE))) {
-			// continue, this is what we want
-		} else {
-			if (logger.isDebugEnabled()) logger.debug("Rating's parent ref did not have rateable aspect.");
+	public void beforeDeleteNode(NodeRef nodeRef) {
+		if (!incremental) {
 			return;
 		}
-		
-		// get the parent node's children
-		List<ChildAssociationRef> children = nodeService.getChildAssocs(parentRef);
-		
-		Double average = 0d;
-		int count = 0;
-		int total = 0;
-		// This actually happens when the last rating is deleted
-		if (children.size() == 0) {
-			// No children so no work to do
-			if (logger.isDebugEnabled()) logger.debug("No children found");			
+
+		// the rating is gone by the time onDeleteNode fires, so remember its value now
+		RatingDelta delta = toDelta(nodeRef, -1);
+		if (delta != null) {
+			Map<NodeRef, RatingDelta> deletedRatings = TransactionalResourceHelper.getMap(KEY_DELETED_RATINGS);
+			deletedRatings.put(nodeRef, delta);
+		}
+	}
+
+	public void onDeleteNode(ChildAssociationRef childAssocRef, boolean isNodeArchived) {
+		if (logger.isDebugEnabled()) logger.debug("Inside onDeleteNode");
+		RatingDelta delta = null;
+		if (incremental) {
+			Map<NodeRef, RatingDelta> deletedRatings = TransactionalResourceHelper.getMap(KEY_DELETED_RATINGS);
+			delta = deletedRatings.remove(childAssocRef.getChildRef());
+		}
+
+		if (delta == null || !RatingAggregateStore.isRatingAssoc(childAssocRef)) {
+			aggregate(childAssocRef.getParentRef(), RatingDelta.rescan());
 		} else {
-			// iterate through the children to compute the total
-			
-			for (ChildAssociationRef child : children) { 				
-				if (!child.getTypeQName().isMatch(QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATINGS))) {
-					continue;
-				}
-				int rating = 0;
-				rating = (Integer)nodeService.getProperty(child.getChildRef(), QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING));
-				count += 1;
-				total += rating;
-			}
-						
-			// compute the average
-			if (count != 0) {
-				average = total / (count / 1.0d);
-			}
-		
-			if (logger.isDebugEnabled()) logger.debug("Computed average:" + average);			
+			aggregate(childAssocRef.getParentRef(), delta);
 		}
-		
-		// store the average on the parent node
-		nodeService.setProperty(parentRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_AVERAGE_RATING), average);
-		nodeService.setProperty(parentRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_TOTAL_RATING), total);
-		nodeService.setProperty(parentRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING_COUNT), count);		
-		
-		if (logger.isDebugEnabled()) logger.debug("Property set");
-		
-		return;
+	}
+
+	/**
+	 * Builds the change a single rating makes to its parent's aggregates, where
+	 * sign is 1 for an added rating and -1 for a removed one. Returns null when
+	 * the rating has no value.
+	 */
+	private RatingDelta toDelta(NodeRef ratingRef, int sign) {
+		Integer rating = (Integer)nodeService.getProperty(ratingRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING));
+		if (rating == null) {
+			return null;
+		}
+
+		RatingDelta delta = RatingDelta.forRating(rating, sign);
+		delta.setShardKey((String)nodeService.getProperty(ratingRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATER)));
+		return delta;
+	}
+
+	/**
+	 * Applies the change right away or, when coalescing or writing behind,
+	 * merges it into the changes pending for the parent so that it is handled
+	 * once at commit. Callers that create ratings with the behavior disabled
+	 * pass their combined change here so it follows the configured mode.
+	 */
+	public void aggregate(NodeRef parentRef, RatingDelta delta) {
+		if (!coalesce && asyncAggregator == null) {
+			aggregateStore.apply(parentRef, delta);
+			return;
+		}
+
+		Map<NodeRef, RatingDelta> pendingDeltas = TransactionalResourceHelper.getMap(KEY_PENDING_DELTAS);
+		RatingDelta pending = pendingDeltas.get(parentRef);
+		if (pending == null) {
+			pending = new RatingDelta();
+			pendingDeltas.put(parentRef, pending);
+		}
+		pending.merge(delta);
+		AlfrescoTransactionSupport.bindListener(transactionListener);
+	}
+
+	public void computeAverage(ChildAssociationRef childAssocRef) {
+		aggregateStore.recompute(childAssocRef.getParentRef());
 	}
 
 
@@ -127,4 +191,82 @@ public class Rating
 		this.policyComponent = policyComponent;
 	}
 
+
+	public RatingAggregateStore getAggregateStore() {
+		return aggregateStore;
+	}
+
+
+	public void setAggregateStore(RatingAggregateStore aggregateStore) {
+		this.aggregateStore = aggregateStore;
+	}
+
+
+	public AsyncRatingAggregator getAsyncAggregator() {
+		return asyncAggregator;
+	}
+
+
+	public void setAsyncAggregator(AsyncRatingAggregator asyncAggregator) {
+		this.asyncAggregator = asyncAggregator;
+	}
+
+
+	public boolean isCoalesce() {
+		return coalesce;
+	}
+
+
+	public void setCoalesce(boolean coalesce) {
+		this.coalesce = coalesce;
+	}
+
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Writes the merged changes for every parent touched in the transaction,
+	 * once per parent, just before the transaction commits. With a write-behind
+	 * aggregator the changes are instead handed over once the transaction has
+	 * committed, so rolled back ratings never reach the aggregates.
+	 */
+	private class CoalescingTransactionListener extends TransactionListenerAdapter {
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			if (asyncAggregator != null) {
+				return;
+			}
+
+			Map<NodeRef, RatingDelta> pendingDeltas = TransactionalResourceHelper.getMap(KEY_PENDING_DELTAS);
+			if (logger.isDebugEnabled()) logger.debug("Applying coalesced ratings for " + pendingDeltas.size() + " parent(s)");
+
+			Map<NodeRef, RatingDelta> deltas = new HashMap<NodeRef, RatingDelta>(pendingDeltas);
+			pendingDeltas.clear();
+			for (Map.Entry<NodeRef, RatingDelta> entry : deltas.entrySet()) {
+				aggregateStore.apply(entry.getKey(), entry.getValue());
+			}
+		}
+
+		@Override
+		public void afterCommit() {
+			if (asyncAggregator == null) {
+				return;
+			}
+
+			Map<NodeRef, RatingDelta> pendingDeltas = TransactionalResourceHelper.getMap(KEY_PENDING_DELTAS);
+			if (logger.isDebugEnabled()) logger.debug("Queueing ratings for " + pendingDeltas.size() + " parent(s)");
+
+			for (Map.Entry<NodeRef, RatingDelta> entry : pendingDeltas.entrySet()) {
+				asyncAggregator.submit(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
 }
@@ -0,0 +1,13 @@
+package com.someco.behavior;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+
+/**
+ * Notified by a {@link RatingAggregateStore} after a transaction that changed
+ * the rating aggregates of a node has committed.
+ */
+public interface RatingAggregateListener {
+
+    void onAggregatesChanged(NodeRef nodeRef);
+
+}
@@ -0,0 +1,250 @@
+package com.someco.behavior;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+
+import com.someco.model.SomeCoRatingsModel;
+
+/**
+ * Reads and writes the scr:averageRating, scr:totalRating and scr:ratingCount
+ * aggregates kept on a rateable node. Shared by the Rating behavior and the
+ * write-behind aggregator so both update the aggregates the same way.
+ *
+ * Registered {@link RatingAggregateListener}s are told about every node whose
+ * aggregates changed once the writing transaction has committed.
+ */
+public class RatingAggregateStore {
+
+    private static final String KEY_CHANGED_NODES = RatingAggregateStore.class.getName() + ".changedNodes";
+
+    // Dependencies
+    private NodeService nodeService;
+
+    private final List<RatingAggregateListener> listeners = new CopyOnWriteArrayList<RatingAggregateListener>();
+    private final NotifyingTransactionListener transactionListener = new NotifyingTransactionListener();
+
+    private Logger logger = Logger.getLogger(RatingAggregateStore.class);
+
+    public void apply(NodeRef parentRef, RatingDelta delta) {
+        if (delta.isRescan()) {
+            recompute(parentRef);
+        } else if (!delta.isEmpty()) {
+            applyDelta(parentRef, delta);
+        }
+    }
+
+    /**
+     * Returns the current aggregates of the node, or null if the node is not
+     * rateable or has never been rated.
+     */
+    public RatingSummary read(NodeRef nodeRef) {
+        return readStored(nodeRef);
+    }
+
+    /**
+     * Reads the aggregates kept in the scr:rateable properties of the node.
+     */
+    protected RatingSummary readStored(NodeRef nodeRef) {
+        if (!isRateable(nodeRef)) {
+            return null;
+        }
+
+        Integer total = (Integer)nodeService.getProperty(nodeRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_TOTAL_RATING));
+        Integer count = (Integer)nodeService.getProperty(nodeRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING_COUNT));
+        if (total == null || count == null) {
+            return null;
+        }
+        return new RatingSummary(total, count, getHistogram(nodeRef, SomeCoRatingsModel.PROP_RATING_HISTOGRAM));
+    }
+
+    /**
+     * Adjusts the stored total, count and histogram of the parent by the delta
+     * and derives the new average from them. Falls back to a full rescan of
+     * the children when the stored aggregates are missing or inconsistent.
+     */
+    protected void applyDelta(NodeRef parentRef, RatingDelta delta) {
+        if (logger.isDebugEnabled()) logger.debug("Inside applyDelta");
+
+        if (!isRateable(parentRef)) {
+            if (logger.isDebugEnabled()) logger.debug("Rating's parent ref did not have rateable aspect.");
+            return;
+        }
+
+        RatingSummary current = readStored(parentRef);
+        int[] histogram = current == null ? null : current.getHistogram();
+        if (current == null || histogram == null || !add(histogram, delta.getHistogram())
+                || current.getCount() + delta.getCount() < 0 || current.getTotal() + delta.getTotal() < 0) {
+            if (logger.isDebugEnabled()) logger.debug("Stored aggregates missing or inconsistent, rescanning");
+            recompute(parentRef);
+            return;
+        }
+
+        setAggregates(parentRef, current.getTotal() + delta.getTotal(), current.getCount() + delta.getCount(), histogram);
+    }
+
+    /**
+     * Recomputes the aggregates from scratch by reading every rating child of
+     * the parent. This is the repair path; regular creates and deletes are
+     * handled by {@link #applyDelta(NodeRef, RatingDelta)}.
+     */
+    public void recompute(NodeRef parentRef) {
+        if (logger.isDebugEnabled()) logger.debug("Inside recompute");
+
+        // check the parent to make sure it has the right aspect
+        if (!isRateable(parentRef)) {
+            if (logger.isDebugEnabled()) logger.debug("Rating's parent ref did not have rateable aspect.");
+            return;
+        }
+
+        // get the parent node's children
+        List<ChildAssociationRef> children = nodeService.getChildAssocs(parentRef);
+
+        int count = 0;
+        int total = 0;
+        int[] histogram = new int[RatingSummary.STARS];
+        // iterate through the children to compute the total
+        for (ChildAssociationRef child : children) {
+            if (!isRatingAssoc(child)) {
+                continue;
+            }
+            int rating = (Integer)nodeService.getProperty(child.getChildRef(), QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING));
+            count += 1;
+            total += rating;
+            if (rating >= 1 && rating <= RatingSummary.STARS) {
+                histogram[rating - 1]++;
+            }
+        }
+
+        setAggregates(parentRef, total, count, histogram);
+    }
+
+    protected void setAggregates(NodeRef parentRef, int total, int count, int[] histogram) {
+        Double average = 0d;
+        // compute the average
+        if (count != 0) {
+            average = total / (count / 1.0d);
+        }
+
+        if (logger.isDebugEnabled()) logger.debug("Computed average:" + average);
+
+        // store the average on the parent node
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_AVERAGE_RATING), average);
+        props.put(QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_TOTAL_RATING), total);
+        props.put(QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING_COUNT), count);
+        props.put(QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_RATING_HISTOGRAM), toList(histogram));
+        nodeService.addProperties(parentRef, props);
+        aggregatesChanged(parentRef);
+
+        if (logger.isDebugEnabled()) logger.debug("Property set");
+    }
+
+    /**
+     * Records that the aggregates of the node were written in the current
+     * transaction, so the listeners are notified after it commits.
+     */
+    protected void aggregatesChanged(NodeRef nodeRef) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Set<NodeRef> changed = TransactionalResourceHelper.getSet(KEY_CHANGED_NODES);
+        changed.add(nodeRef);
+        AlfrescoTransactionSupport.bindListener(transactionListener);
+    }
+
+    public void addListener(RatingAggregateListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RatingAggregateListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reads a multi-valued histogram property, or returns null if it is not
+     * set or does not have one bucket per star value.
+     */
+    @SuppressWarnings("unchecked")
+    protected int[] getHistogram(NodeRef nodeRef, String propName) {
+        List<Integer> values = (List<Integer>)nodeService.getProperty(nodeRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, propName));
+        if (values == null || values.size() != RatingSummary.STARS) {
+            return null;
+        }
+        int[] histogram = new int[RatingSummary.STARS];
+        for (int i = 0; i < histogram.length; i++) {
+            Integer value = values.get(i);
+            histogram[i] = value == null ? 0 : value;
+        }
+        return histogram;
+    }
+
+    protected static ArrayList<Integer> toList(int[] histogram) {
+        ArrayList<Integer> values = new ArrayList<Integer>(histogram.length);
+        for (int bucket : histogram) {
+            values.add(bucket);
+        }
+        return values;
+    }
+
+    /**
+     * Adds the change to the histogram in place. Returns false if a bucket
+     * would go negative.
+     */
+    protected static boolean add(int[] histogram, int[] change) {
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] += change[i];
+            if (histogram[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean isRateable(NodeRef nodeRef) {
+        return nodeService.exists(nodeRef) && nodeService.hasAspect(nodeRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASPECT_SCR_RATEABLE));
+    }
+
+    static boolean isRatingAssoc(ChildAssociationRef childAssocRef) {
+        return childAssocRef.getTypeQName().isMatch(QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATINGS));
+    }
+
+    public NodeService getNodeService() {
+        return nodeService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    private class NotifyingTransactionListener extends TransactionListenerAdapter {
+
+        @Override
+        public void afterCommit() {
+            Set<NodeRef> changed = TransactionalResourceHelper.getSet(KEY_CHANGED_NODES);
+            for (NodeRef nodeRef : changed) {
+                for (RatingAggregateListener listener : listeners) {
+                    try {
+                        listener.onAggregatesChanged(nodeRef);
+                    } catch (RuntimeException e) {
+                        logger.error("Rating aggregate listener failed for " + nodeRef, e);
+                    }
+                }
+            }
+        }
+    }
+
+}
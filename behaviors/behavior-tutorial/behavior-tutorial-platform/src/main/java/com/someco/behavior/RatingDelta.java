@@ -0,0 +1,121 @@
+package com.someco.behavior;
+
+/**
+ * A pending change to the rating aggregates of a single rateable node. Deltas
+ * for the same node can be merged so that one write covers many ratings.
+ */
+public class RatingDelta {
+
+    private int total;
+    private int count;
+    private final int[] histogram = new int[RatingSummary.STARS];
+    private boolean rescan;
+    private String shardKey;
+
+    public RatingDelta() {
+    }
+
+    public RatingDelta(int total, int count) {
+        this.total = total;
+        this.count = count;
+    }
+
+    /**
+     * The change made by adding (sign 1) or removing (sign -1) one rating.
+     */
+    public static RatingDelta forRating(int rating, int sign) {
+        RatingDelta delta = new RatingDelta(sign * rating, sign);
+        delta.addStars(rating, sign);
+        return delta;
+    }
+
+    /**
+     * The change made by a rater changing an existing rating.
+     */
+    public static RatingDelta forChange(int oldRating, int newRating) {
+        RatingDelta delta = new RatingDelta(newRating - oldRating, 0);
+        delta.addStars(oldRating, -1);
+        delta.addStars(newRating, 1);
+        return delta;
+    }
+
+    /**
+     * A delta that cannot be expressed as an adjustment and requires the
+     * aggregates to be recomputed from the ratings themselves.
+     */
+    public static RatingDelta rescan() {
+        RatingDelta delta = new RatingDelta();
+        delta.rescan = true;
+        return delta;
+    }
+
+    public void merge(RatingDelta other) {
+        this.total += other.total;
+        this.count += other.count;
+        this.rescan |= other.rescan;
+        for (int i = 0; i < histogram.length; i++) {
+            this.histogram[i] += other.histogram[i];
+        }
+        if (this.shardKey == null) {
+            this.shardKey = other.shardKey;
+        }
+    }
+
+    public boolean isEmpty() {
+        if (rescan || total != 0 || count != 0) {
+            return false;
+        }
+        for (int bucket : histogram) {
+            if (bucket != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adjusts the histogram bucket of the star value by n. Values outside
+     * 1..{@link RatingSummary#STARS} are not tracked in the histogram.
+     */
+    public void addStars(int rating, int n) {
+        if (rating >= 1 && rating <= histogram.length) {
+            histogram[rating - 1] += n;
+        }
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Change per star value, index 0 holding the change for one star.
+     */
+    public int[] getHistogram() {
+        return histogram.clone();
+    }
+
+    public boolean isRescan() {
+        return rescan;
+    }
+
+    /**
+     * Key used by a sharded store to spread writes over the counter shards,
+     * normally the rater of the rating that caused the change.
+     */
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    public void setShardKey(String shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    @Override
+    public String toString() {
+        return "RatingDelta[total=" + total + ", count=" + count + ", rescan=" + rescan + "]";
+    }
+}
@@ -0,0 +1,379 @@
+package com.someco.behavior;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.SearchLanguageConversion;
+import org.apache.log4j.Logger;
+
+import com.someco.model.SomeCoModel;
+import com.someco.model.SomeCoRatingsModel;
+
+/**
+ * Keeps the highest rated whitepapers overall and per sc:product, so a
+ * leaderboard can be served without searching or sorting every whitepaper.
+ *
+ * Each board holds at most capacity entries in a min-heap ordered by average
+ * rating, then by number of ratings, so the lowest entry can be dropped in
+ * O(log capacity) when a better one arrives. The aggregate store reports
+ * the nodes whose ratings changed once their transaction commits; they are
+ * only noted then, and moved into the boards by the next read, in the
+ * reader's transaction. When more nodes changed than a board holds, the
+ * boards are rebuilt instead.
+ *
+ * A board also remembers the best score it has ever had to leave out. Its
+ * top entries are only trusted while they score at least that much, because
+ * a left out whitepaper could otherwise rank higher than an entry whose
+ * rating has since dropped. When that is no longer the case the board is
+ * rebuilt from a search on the next read.
+ *
+ * Boards are local to this server and only see the rating changes made on
+ * it, so a board is also rebuilt once it is older than timeToLive. That
+ * bounds how stale a board can get in a cluster. Deactivated whitepapers are
+ * skipped when a board is read.
+ */
+public class RatingLeaderboard implements RatingAggregateListener {
+
+    /** Key of the board that covers every product. */
+    public static final String ALL_PRODUCTS = "";
+
+    private static final QName TYPE_WHITEPAPER = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.TYPE_SC_WHITEPAPER);
+    private static final QName PROP_PRODUCT = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_PRODUCT);
+    private static final QName PROP_IS_ACTIVE = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE);
+    private static final QName PROP_AVERAGE_RATING = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_AVERAGE_RATING);
+
+    private static final String QUERY = "TYPE:\"{http://www.someco.com/model/content/1.0}whitepaper\" AND ASPECT:\"{http://www.someco.com/model/ratings/1.0}rateable\" AND @sc\\:isActive:true";
+
+    /** Best first. */
+    private static final Comparator<Entry> RANKING = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int result = Double.compare(e2.average, e1.average);
+            if (result == 0) {
+                result = Integer.compare(e2.count, e1.count);
+            }
+            return result != 0 ? result : e1.nodeRef.toString().compareTo(e2.nodeRef.toString());
+        }
+    };
+
+    // Dependencies
+    private RatingAggregateStore aggregateStore;
+    private NodeService nodeService;
+    private SearchService searchService;
+
+    // Configuration
+    private int capacity = 100;
+    private long timeToLive = 300000;
+
+    private final ConcurrentMap<String, Board> boards = new ConcurrentHashMap<String, Board>();
+    // nodes whose aggregates changed since the boards were last read
+    private final Set<NodeRef> changed = ConcurrentHashMap.newKeySet();
+
+    private Logger logger = Logger.getLogger(RatingLeaderboard.class);
+
+    public void init() {
+        aggregateStore.addListener(this);
+    }
+
+    public void destroy() {
+        aggregateStore.removeListener(this);
+    }
+
+    /**
+     * Returns up to max of the best rated active whitepapers, best first, for
+     * the product or for all products if it is null or empty. max is capped
+     * at the capacity. Must be called inside a transaction.
+     */
+    public List<Entry> getTop(String product, int max) {
+        String key = product == null ? ALL_PRODUCTS : product;
+        int n = Math.min(max, capacity);
+        applyChanges();
+
+        Board board = boards.get(key);
+        if (board == null) {
+            board = boards.computeIfAbsent(key, k -> new Board());
+        }
+
+        synchronized (board) {
+            List<Entry> top = board.isFresh() ? collect(board, n, false) : null;
+            if (top == null) {
+                rebuild(key, board);
+                top = collect(board, n, true);
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Returns the first n active entries of the board, or null if that needs
+     * an entry that is not trusted to be in the right place and trustAll is
+     * false.
+     */
+    private List<Entry> collect(Board board, int n, boolean trustAll) {
+        List<Entry> top = new ArrayList<Entry>(n);
+        for (Entry entry : board.ranked()) {
+            if (top.size() == n) {
+                break;
+            }
+            if (!trustAll && !board.isTrusted(entry)) {
+                return null;
+            }
+            if (nodeService.exists(entry.nodeRef) && Boolean.TRUE.equals(nodeService.getProperty(entry.nodeRef, PROP_IS_ACTIVE))) {
+                top.add(entry);
+            }
+        }
+        if (!trustAll && top.size() < n && board.floor != null) {
+            // whitepapers that were left out could fill the rest
+            return null;
+        }
+        return top;
+    }
+
+    @Override
+    public void onAggregatesChanged(NodeRef nodeRef) {
+        // called after commit, so the node is read by the next getTop instead of in a transaction of its own
+        changed.add(nodeRef);
+    }
+
+    /**
+     * Moves the nodes that changed since the last read into the boards. Must
+     * be called inside a transaction.
+     */
+    private void applyChanges() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>(changed);
+        changed.removeAll(nodeRefs);
+
+        if (nodeRefs.size() > capacity) {
+            // reading every node would cost more than searching again
+            for (Board board : boards.values()) {
+                synchronized (board) {
+                    board.expire();
+                }
+            }
+            if (logger.isDebugEnabled()) logger.debug(nodeRefs.size() + " rated nodes changed, rebuilding the leaderboards");
+            return;
+        }
+
+        for (final NodeRef nodeRef : nodeRefs) {
+            Map<String, Entry> update = AuthenticationUtil.runAsSystem(() -> read(nodeRef));
+            for (Map.Entry<String, Board> board : boards.entrySet()) {
+                synchronized (board.getValue()) {
+                    // the node is dropped from the boards of products it no longer has
+                    board.getValue().update(nodeRef, update.get(board.getKey()));
+                }
+            }
+        }
+        if (logger.isDebugEnabled()) logger.debug("Updated leaderboards for " + nodeRefs.size() + " rated node(s)");
+    }
+
+    /**
+     * Returns the entry of the node keyed by the boards it belongs on, with
+     * a null entry if it has no ratings left.
+     */
+    private Map<String, Entry> read(NodeRef nodeRef) {
+        Map<String, Entry> byBoard = new HashMap<String, Entry>();
+        if (!nodeService.exists(nodeRef) || !nodeService.getType(nodeRef).equals(TYPE_WHITEPAPER)) {
+            return byBoard;
+        }
+        RatingSummary summary = aggregateStore.read(nodeRef);
+        Entry entry = summary == null || summary.getCount() == 0
+                ? null
+                : new Entry(nodeRef, summary.getAverage(), summary.getCount());
+        byBoard.put(ALL_PRODUCTS, entry);
+        String product = (String)nodeService.getProperty(nodeRef, PROP_PRODUCT);
+        if (product != null && !product.isEmpty()) {
+            byBoard.put(product, entry);
+        }
+        return byBoard;
+    }
+
+    /**
+     * Reloads the board from a search for the best rated active whitepapers
+     * of the product. Must be called with the board locked.
+     */
+    private void rebuild(final String product, final Board board) {
+        List<Entry> found = AuthenticationUtil.runAsSystem(() -> {
+            SearchParameters sp = new SearchParameters();
+            sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+            sp.setLanguage(SearchService.LANGUAGE_LUCENE);
+            sp.setQuery(ALL_PRODUCTS.equals(product) ? QUERY : QUERY + " AND @sc\\:product:\"" + SearchLanguageConversion.escapeLuceneQuery(product) + "\"");
+            sp.addSort("@" + PROP_AVERAGE_RATING, false);
+            // one more than fits tells whether anything was left out
+            sp.setMaxItems(capacity + 1);
+
+            List<Entry> entries = new ArrayList<Entry>();
+            ResultSet results = searchService.query(sp);
+            try {
+                for (NodeRef nodeRef : results.getNodeRefs()) {
+                    RatingSummary summary = aggregateStore.read(nodeRef);
+                    if (summary != null && summary.getCount() > 0) {
+                        entries.add(new Entry(nodeRef, summary.getAverage(), summary.getCount()));
+                    }
+                }
+            } finally {
+                results.close();
+            }
+            return entries;
+        });
+
+        Collections.sort(found, RANKING);
+        board.reset(found.size() > capacity ? found.subList(0, capacity) : found,
+                found.size() > capacity ? found.get(capacity) : null);
+        if (logger.isDebugEnabled()) logger.debug("Rebuilt leaderboard '" + product + "' with " + board.members.size() + " entries");
+    }
+
+    public void setAggregateStore(RatingAggregateStore aggregateStore) {
+        this.aggregateStore = aggregateStore;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setSearchService(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Milliseconds a board is served before it is rebuilt from a search. Zero
+     * or less keeps a board until it is no longer trusted.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * A whitepaper on a leaderboard.
+     */
+    public static class Entry {
+        private final NodeRef nodeRef;
+        private final double average;
+        private final int count;
+
+        private Entry(NodeRef nodeRef, double average, int count) {
+            this.nodeRef = nodeRef;
+            this.average = average;
+            this.count = count;
+        }
+
+        public NodeRef getNodeRef() {
+            return nodeRef;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * The entries of one leaderboard. Not thread safe; callers lock it.
+     */
+    private class Board {
+        // lowest ranked entry at the head
+        private final PriorityQueue<Entry> heap = new PriorityQueue<Entry>(16, RANKING.reversed());
+        private final Map<NodeRef, Entry> members = new HashMap<NodeRef, Entry>();
+        // best entry that was left out, null if none ever was
+        private Entry floor;
+        // when the board was last rebuilt, 0 if it never was
+        private long loaded;
+
+        void reset(List<Entry> entries, Entry leftOut) {
+            heap.clear();
+            members.clear();
+            for (Entry entry : entries) {
+                heap.add(entry);
+                members.put(entry.nodeRef, entry);
+            }
+            floor = leftOut;
+            loaded = System.currentTimeMillis();
+        }
+
+        /**
+         * True if the board has been loaded and is not older than timeToLive.
+         */
+        boolean isFresh() {
+            return loaded != 0 && (timeToLive <= 0 || System.currentTimeMillis() - loaded < timeToLive);
+        }
+
+        /**
+         * Makes the next read rebuild the board.
+         */
+        void expire() {
+            loaded = 0;
+        }
+
+        void update(NodeRef nodeRef, Entry entry) {
+            Entry old = members.remove(nodeRef);
+            if (old != null) {
+                heap.remove(old);
+            }
+            if (entry == null) {
+                return;
+            }
+            if (heap.size() < capacity) {
+                add(entry);
+            } else if (RANKING.compare(entry, heap.peek()) < 0) {
+                Entry dropped = heap.poll();
+                members.remove(dropped.nodeRef);
+                leaveOut(dropped);
+                add(entry);
+            } else {
+                leaveOut(entry);
+            }
+        }
+
+        private void add(Entry entry) {
+            heap.add(entry);
+            members.put(entry.nodeRef, entry);
+        }
+
+        private void leaveOut(Entry entry) {
+            if (floor == null || RANKING.compare(entry, floor) < 0) {
+                floor = entry;
+            }
+        }
+
+        List<Entry> ranked() {
+            List<Entry> ranked = new ArrayList<Entry>(heap);
+            Collections.sort(ranked, RANKING);
+            return ranked;
+        }
+
+        /**
+         * True if no whitepaper outside the board can rank above the entry,
+         * that is if nothing was ever left out or the entry still ranks above
+         * the best that was.
+         */
+        boolean isTrusted(Entry entry) {
+            return floor == null || RANKING.compare(entry, floor) < 0;
+        }
+    }
+
+}
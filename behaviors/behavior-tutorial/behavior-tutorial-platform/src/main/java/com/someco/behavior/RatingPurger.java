@@ -0,0 +1,116 @@
+package com.someco.behavior;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.log4j.Logger;
+
+import com.someco.model.SomeCoRatingsModel;
+
+/**
+ * Deletes every rating of a node. The rating behavior is switched off while
+ * the ratings are removed, so deleting them does not update the aggregates
+ * once per rating, and the aggregates are reset in one write at the end.
+ *
+ * Each chunk of ratings is deleted in its own transaction, so this must not
+ * be called from inside a transaction that still needs to see the ratings.
+ */
+public class RatingPurger {
+
+    // Dependencies
+    private NodeService nodeService;
+    private TransactionService transactionService;
+    private BehaviourFilter behaviourFilter;
+    private RatingAggregateStore aggregateStore;
+
+    // Configuration
+    private int chunkSize = 100;
+
+    private Logger logger = Logger.getLogger(RatingPurger.class);
+
+    /**
+     * Deletes the ratings of the node and returns how many were deleted.
+     */
+    public int deleteAll(final NodeRef nodeRef) {
+        final RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
+
+        List<NodeRef> ratingRefs = txnHelper.doInTransaction(() -> {
+            if (!nodeService.exists(nodeRef) || !nodeService.hasAspect(nodeRef, QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASPECT_SCR_RATEABLE))) {
+                return null;
+            }
+            List<ChildAssociationRef> assocs = nodeService.getChildAssocs(nodeRef,
+                    QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATINGS),
+                    RegexQNamePattern.MATCH_ALL);
+            List<NodeRef> refs = new ArrayList<NodeRef>(assocs.size());
+            for (ChildAssociationRef assoc : assocs) {
+                refs.add(assoc.getChildRef());
+            }
+            return refs;
+        }, true, true);
+
+        if (ratingRefs == null) {
+            if (logger.isDebugEnabled()) logger.debug("Node did not have rateable aspect.");
+            return 0;
+        }
+        if (logger.isDebugEnabled()) logger.debug("Deleting " + ratingRefs.size() + " rating(s) from " + nodeRef);
+
+        final QName ratingType = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING);
+        int deleted = 0;
+        for (int start = 0; start < ratingRefs.size(); start += chunkSize) {
+            final List<NodeRef> chunk = ratingRefs.subList(start, Math.min(start + chunkSize, ratingRefs.size()));
+            deleted += txnHelper.doInTransaction(() -> {
+                int count = 0;
+                behaviourFilter.disableBehaviour(ratingType);
+                try {
+                    for (NodeRef ratingRef : chunk) {
+                        // a rating may have been removed by someone else in the meantime
+                        if (nodeService.exists(ratingRef)) {
+                            nodeService.deleteNode(ratingRef);
+                            count++;
+                        }
+                    }
+                } finally {
+                    behaviourFilter.enableBehaviour(ratingType);
+                }
+                return count;
+            }, false, true);
+        }
+
+        // ratings added while the purge ran are still counted
+        txnHelper.doInTransaction(() -> {
+            aggregateStore.recompute(nodeRef);
+            return null;
+        }, false, true);
+
+        return deleted;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
+        this.behaviourFilter = behaviourFilter;
+    }
+
+    public void setAggregateStore(RatingAggregateStore aggregateStore) {
+        this.aggregateStore = aggregateStore;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+}
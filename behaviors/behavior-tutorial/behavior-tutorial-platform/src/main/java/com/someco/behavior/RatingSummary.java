@@ -0,0 +1,70 @@
+package com.someco.behavior;
+
+import java.io.Serializable;
+
+/**
+ * Immutable snapshot of the rating aggregates of a rateable node.
+ */
+public class RatingSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of star values kept in the histogram, 1 through STARS. */
+    public static final int STARS = 5;
+
+    public static final RatingSummary EMPTY = new RatingSummary(0, 0, new int[STARS]);
+
+    private final int total;
+    private final int count;
+    private final int[] histogram;
+
+    public RatingSummary(int total, int count) {
+        this(total, count, null);
+    }
+
+    /**
+     * @param histogram number of ratings per star value, index 0 holding the
+     *        one star ratings, or null if the node has no histogram yet
+     */
+    public RatingSummary(int total, int count, int[] histogram) {
+        this.total = total;
+        this.count = count;
+        this.histogram = histogram == null ? null : histogram.clone();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getAverage() {
+        return count == 0 ? 0d : total / (count / 1.0d);
+    }
+
+    /**
+     * Number of ratings per star value, index 0 holding the one star ratings,
+     * or null if the node has no histogram yet.
+     */
+    public int[] getHistogram() {
+        return histogram == null ? null : histogram.clone();
+    }
+
+    /**
+     * Bayesian average that pulls nodes with few ratings towards priorMean, as
+     * if every node had priorWeight extra ratings of priorMean.
+     */
+    public double getWeightedScore(double priorMean, int priorWeight) {
+        if (count + priorWeight == 0) {
+            return 0d;
+        }
+        return (priorMean * priorWeight + total) / (count + priorWeight);
+    }
+
+    @Override
+    public String toString() {
+        return "RatingSummary[total=" + total + ", count=" + count + "]";
+    }
+}
@@ -0,0 +1,164 @@
+package com.someco.behavior;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.log4j.Logger;
+
+/**
+ * Read-through cache of rating summaries keyed by NodeRef. Entries are
+ * evicted least recently used once maxSize is reached and expire after
+ * timeToLive milliseconds. The cache listens to the aggregate store and drops
+ * an entry as soon as a transaction that changed the node's aggregates
+ * commits.
+ *
+ * A miss only stores what it read if no entry was invalidated while it was
+ * reading, so a read that raced a commit cannot put the old value back.
+ *
+ * The cache is local to this server. In a cluster, writes made on another
+ * node are picked up when the entry expires.
+ */
+public class RatingSummaryCache implements RatingAggregateListener {
+
+    // Dependencies
+    private RatingAggregateStore aggregateStore;
+
+    // Configuration
+    private int maxSize = 10000;
+    private long timeToLive = 60000;
+
+    private Map<NodeRef, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // bumped on every invalidation, guarded by entries
+    private long generation;
+
+    private Logger logger = Logger.getLogger(RatingSummaryCache.class);
+
+    public void init() {
+        this.entries = new LinkedHashMap<NodeRef, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<NodeRef, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        aggregateStore.addListener(this);
+    }
+
+    public void destroy() {
+        aggregateStore.removeListener(this);
+    }
+
+    /**
+     * Returns the rating summary of the node, or null if the node is not
+     * rateable or has never been rated. Reads the aggregate store on a miss,
+     * so a transaction must be available.
+     */
+    public RatingSummary get(NodeRef nodeRef) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        long readGeneration;
+        synchronized (entries) {
+            entry = entries.get(nodeRef);
+            readGeneration = generation;
+        }
+        if (entry != null && entry.expires > now) {
+            hits.incrementAndGet();
+            return entry.summary;
+        }
+
+        misses.incrementAndGet();
+        RatingSummary summary = aggregateStore.read(nodeRef);
+        synchronized (entries) {
+            if (generation == readGeneration) {
+                entries.put(nodeRef, new Entry(summary, now + timeToLive));
+            }
+        }
+        return summary;
+    }
+
+    public void invalidate(NodeRef nodeRef) {
+        synchronized (entries) {
+            generation++;
+            if (entries.remove(nodeRef) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            generation++;
+            entries.clear();
+        }
+    }
+
+    @Override
+    public void onAggregatesChanged(NodeRef nodeRef) {
+        if (logger.isDebugEnabled()) logger.debug("Invalidating cached rating summary of " + nodeRef);
+        invalidate(nodeRef);
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0d : h / (total / 1.0d);
+    }
+
+    public void setAggregateStore(RatingAggregateStore aggregateStore) {
+        this.aggregateStore = aggregateStore;
+    }
+
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    private static class Entry {
+        private final RatingSummary summary;
+        private final long expires;
+
+        private Entry(RatingSummary summary, long expires) {
+            this.summary = summary;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -0,0 +1,273 @@
+package com.someco.behavior;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.namespace.RegexQNamePattern;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.log4j.Logger;
+
+import com.someco.model.SomeCoRatingsModel;
+
+/**
+ * Aggregate store that spreads rating writes over a fixed number of
+ * scr:ratingShard counter children instead of updating the rateable node
+ * itself, so concurrent votes on the same document do not serialize on one
+ * node. The shard is picked by hashing the rater.
+ *
+ * The scr:rateable properties hold the folded base values. Reads through
+ * {@link #read(NodeRef)} add the shards on top of them, and a periodic fold
+ * moves the shard values into the aspect properties and zeroes the shards.
+ * Nodes waiting to be folded are tracked in memory on the node that wrote
+ * them; anything left unfolded after a restart is folded by the next write.
+ */
+public class ShardedRatingAggregateStore extends RatingAggregateStore {
+
+    // Dependencies
+    private TransactionService transactionService;
+
+    // Configuration
+    private int shardCount = 8;
+    private long foldInterval = 60000;
+
+    private final Set<NodeRef> unfolded = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService foldScheduler;
+
+    private Logger logger = Logger.getLogger(ShardedRatingAggregateStore.class);
+
+    public void init() {
+        if (logger.isDebugEnabled()) logger.debug("Using " + shardCount + " rating shards, folding every " + foldInterval + "ms");
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("SomecoRatingShardFold");
+        this.foldScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        this.foldScheduler.scheduleWithFixedDelay(this::foldAll, foldInterval, foldInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() {
+        foldScheduler.shutdown();
+        try {
+            foldScheduler.awaitTermination(foldInterval, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        foldAll();
+    }
+
+    @Override
+    public RatingSummary read(NodeRef nodeRef) {
+        RatingSummary base = readStored(nodeRef);
+        if (base == null) {
+            return null;
+        }
+
+        int total = base.getTotal();
+        int count = base.getCount();
+        int[] histogram = base.getHistogram();
+        for (NodeRef shardRef : getShards(nodeRef)) {
+            total += getInt(shardRef, SomeCoRatingsModel.PROP_SHARD_TOTAL);
+            count += getInt(shardRef, SomeCoRatingsModel.PROP_SHARD_COUNT);
+            int[] shardHistogram = getHistogram(shardRef, SomeCoRatingsModel.PROP_SHARD_HISTOGRAM);
+            if (histogram != null && shardHistogram != null) {
+                add(histogram, shardHistogram);
+            }
+        }
+        return new RatingSummary(total, count, histogram);
+    }
+
+    @Override
+    protected void applyDelta(NodeRef parentRef, RatingDelta delta) {
+        if (!isRateable(parentRef)) {
+            if (logger.isDebugEnabled()) logger.debug("Rating's parent ref did not have rateable aspect.");
+            return;
+        }
+
+        // the base values have to exist before the shards mean anything
+        RatingSummary base = readStored(parentRef);
+        if (base == null || base.getHistogram() == null) {
+            recompute(parentRef);
+            return;
+        }
+
+        NodeService nodeService = getNodeService();
+        QName shardName = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, "shard" + pickShard(delta.getShardKey()));
+        List<ChildAssociationRef> shards = nodeService.getChildAssocs(parentRef, shardAssocQName(), shardName);
+
+        if (shards.isEmpty()) {
+            // two writers may both create the same shard, which is harmless as all shards are summed
+            Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_TOTAL), delta.getTotal());
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_COUNT), delta.getCount());
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_HISTOGRAM), toList(delta.getHistogram()));
+            nodeService.createNode(parentRef, shardAssocQName(), shardName,
+                    QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING_SHARD),
+                    props);
+        } else {
+            NodeRef shardRef = shards.get(0).getChildRef();
+            Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_TOTAL), getInt(shardRef, SomeCoRatingsModel.PROP_SHARD_TOTAL) + delta.getTotal());
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_COUNT), getInt(shardRef, SomeCoRatingsModel.PROP_SHARD_COUNT) + delta.getCount());
+            // shard buckets may go negative, only the folded sum has to be consistent
+            int[] histogram = getHistogram(shardRef, SomeCoRatingsModel.PROP_SHARD_HISTOGRAM);
+            if (histogram == null) {
+                histogram = new int[RatingSummary.STARS];
+            }
+            int[] change = delta.getHistogram();
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += change[i];
+            }
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_HISTOGRAM), toList(histogram));
+            nodeService.addProperties(shardRef, props);
+        }
+
+        unfolded.add(parentRef);
+        aggregatesChanged(parentRef);
+    }
+
+    @Override
+    public void recompute(NodeRef parentRef) {
+        super.recompute(parentRef);
+        if (isRateable(parentRef)) {
+            resetShards(parentRef);
+        }
+    }
+
+    /**
+     * Moves the shard values of the node into its scr:rateable properties.
+     * Must be called inside a transaction.
+     */
+    public void fold(NodeRef parentRef) {
+        if (!isRateable(parentRef)) {
+            return;
+        }
+
+        RatingSummary summary = read(parentRef);
+        if (summary == null || summary.getTotal() < 0 || summary.getCount() < 0 || !isValid(summary.getHistogram())) {
+            recompute(parentRef);
+            return;
+        }
+
+        setAggregates(parentRef, summary.getTotal(), summary.getCount(), summary.getHistogram());
+        resetShards(parentRef);
+    }
+
+    /**
+     * Folds every node written since the last fold, each in its own transaction.
+     */
+    public void foldAll() {
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>(unfolded);
+        if (nodeRefs.isEmpty()) {
+            return;
+        }
+        if (logger.isDebugEnabled()) logger.debug("Folding rating shards for " + nodeRefs.size() + " node(s)");
+
+        for (final NodeRef nodeRef : nodeRefs) {
+            unfolded.remove(nodeRef);
+            try {
+                AuthenticationUtil.runAsSystem(() -> transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                    fold(nodeRef);
+                    return null;
+                }, false, true));
+            } catch (RuntimeException e) {
+                logger.error("Failed to fold rating shards for " + nodeRef, e);
+                unfolded.add(nodeRef);
+            }
+        }
+    }
+
+    private void resetShards(NodeRef parentRef) {
+        for (NodeRef shardRef : getShards(parentRef)) {
+            if (getInt(shardRef, SomeCoRatingsModel.PROP_SHARD_TOTAL) == 0 && getInt(shardRef, SomeCoRatingsModel.PROP_SHARD_COUNT) == 0
+                    && isZero(getHistogram(shardRef, SomeCoRatingsModel.PROP_SHARD_HISTOGRAM))) {
+                continue;
+            }
+            Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_TOTAL), 0);
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_COUNT), 0);
+            props.put(propQName(SomeCoRatingsModel.PROP_SHARD_HISTOGRAM), toList(new int[RatingSummary.STARS]));
+            getNodeService().addProperties(shardRef, props);
+        }
+    }
+
+    private List<NodeRef> getShards(NodeRef parentRef) {
+        List<ChildAssociationRef> assocs = getNodeService().getChildAssocs(parentRef, shardAssocQName(), RegexQNamePattern.MATCH_ALL);
+        List<NodeRef> shardRefs = new ArrayList<NodeRef>(assocs.size());
+        for (ChildAssociationRef assoc : assocs) {
+            shardRefs.add(assoc.getChildRef());
+        }
+        return shardRefs;
+    }
+
+    private static boolean isValid(int[] histogram) {
+        if (histogram == null) {
+            return false;
+        }
+        for (int bucket : histogram) {
+            if (bucket < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(int[] histogram) {
+        if (histogram == null) {
+            return true;
+        }
+        for (int bucket : histogram) {
+            if (bucket != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int pickShard(String shardKey) {
+        if (shardKey == null) {
+            return ThreadLocalRandom.current().nextInt(shardCount);
+        }
+        return Math.floorMod(shardKey.hashCode(), shardCount);
+    }
+
+    private int getInt(NodeRef nodeRef, String propName) {
+        Integer value = (Integer)getNodeService().getProperty(nodeRef, propQName(propName));
+        return value == null ? 0 : value;
+    }
+
+    private static QName propQName(String propName) {
+        return QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, propName);
+    }
+
+    private static QName shardAssocQName() {
+        return QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.ASSN_SCR_RATING_SHARDS);
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public void setFoldInterval(long foldInterval) {
+        this.foldInterval = foldInterval;
+    }
+
+}
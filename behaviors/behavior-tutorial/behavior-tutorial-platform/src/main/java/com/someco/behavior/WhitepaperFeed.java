@@ -0,0 +1,317 @@
+package com.someco.behavior;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.model.Repository;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.log4j.Logger;
+
+import com.someco.model.SomeCoModel;
+
+/**
+ * Materialized list of the active whitepapers in the Whitepapers folder,
+ * newest sc:published first, so whitepapers.get can page them by publication
+ * date without a query.
+ *
+ * The list is kept in a SimpleCache made by the cacheFactory, configured in
+ * alfresco-global.properties as an invalidating cluster cache. Node policies
+ * on sc:whitepaper drop it once a transaction that creates, moves, deletes,
+ * activates, deactivates or republishes a whitepaper in the folder commits,
+ * whichever server or API made the change, and every server in the cluster
+ * drops its copy. The next read rebuilds it from the folder's children in the
+ * database, so it does not depend on the index having caught up. A list
+ * loaded on one server while another commits a change can miss that change;
+ * the cache's timeToLiveSeconds bounds how long such a list is served.
+ *
+ * The list holds every active whitepaper whatever its permissions. Pages are
+ * cut from it after dropping the entries the current user cannot read. At
+ * most maxEntries are kept; when there are more, {@link #getPage} returns
+ * null and the caller should use a query instead.
+ */
+public class WhitepaperFeed implements NodeServicePolicies.OnCreateNodePolicy,
+        NodeServicePolicies.OnUpdatePropertiesPolicy,
+        NodeServicePolicies.OnMoveNodePolicy,
+        NodeServicePolicies.OnDeleteNodePolicy {
+
+    private static final String KEY = "whitepapers";
+
+    private static final QName TYPE_WHITEPAPER = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.TYPE_SC_WHITEPAPER);
+    private static final QName PROP_IS_ACTIVE = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE);
+    private static final QName PROP_PUBLISHED = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_PUBLISHED);
+
+    // Dependencies
+    private NodeService nodeService;
+    private PermissionService permissionService;
+    private PolicyComponent policyComponent;
+    private Repository repositoryHelper;
+    private SimpleCache<String, Snapshot> cache;
+
+    // Configuration
+    private int maxEntries = 1000;
+    private List<String> whitepapersPath = Collections.emptyList();
+
+    // Behaviours
+    private Behaviour onCreateNode;
+    private Behaviour onUpdateProperties;
+    private Behaviour onMoveNode;
+    private Behaviour onDeleteNode;
+
+    // bumped whenever the list is dropped on this server, guarded by this
+    private long generation;
+
+    private volatile NodeRef whitepapersFolder;
+
+    private final TransactionListenerAdapter transactionListener = new InvalidatingListener();
+
+    private Logger logger = Logger.getLogger(WhitepaperFeed.class);
+
+    public void init() {
+        this.onCreateNode = new JavaBehaviour(this, "onCreateNode", NotificationFrequency.EVERY_EVENT);
+        this.onUpdateProperties = new JavaBehaviour(this, "onUpdateProperties", NotificationFrequency.EVERY_EVENT);
+        this.onMoveNode = new JavaBehaviour(this, "onMoveNode", NotificationFrequency.EVERY_EVENT);
+        this.onDeleteNode = new JavaBehaviour(this, "onDeleteNode", NotificationFrequency.EVERY_EVENT);
+
+        this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "onCreateNode"), TYPE_WHITEPAPER, this.onCreateNode);
+        this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "onUpdateProperties"), TYPE_WHITEPAPER, this.onUpdateProperties);
+        this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "onMoveNode"), TYPE_WHITEPAPER, this.onMoveNode);
+        this.policyComponent.bindClassBehaviour(QName.createQName(NamespaceService.ALFRESCO_URI, "onDeleteNode"), TYPE_WHITEPAPER, this.onDeleteNode);
+    }
+
+    @Override
+    public void onCreateNode(ChildAssociationRef childAssocRef) {
+        if (isWhitepapersFolder(childAssocRef.getParentRef())) {
+            invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after) {
+        if (Objects.equals(before.get(PROP_IS_ACTIVE), after.get(PROP_IS_ACTIVE))
+                && Objects.equals(before.get(PROP_PUBLISHED), after.get(PROP_PUBLISHED))) {
+            return;
+        }
+        if (isWhitepapersFolder(nodeService.getPrimaryParent(nodeRef).getParentRef())) {
+            invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef) {
+        if (isWhitepapersFolder(oldChildAssocRef.getParentRef()) || isWhitepapersFolder(newChildAssocRef.getParentRef())) {
+            invalidateAfterCommit();
+        }
+    }
+
+    @Override
+    public void onDeleteNode(ChildAssociationRef childAssocRef, boolean isNodeArchived) {
+        if (isWhitepapersFolder(childAssocRef.getParentRef())) {
+            invalidateAfterCommit();
+        }
+    }
+
+    private void invalidateAfterCommit() {
+        AlfrescoTransactionSupport.bindListener(transactionListener);
+    }
+
+    /**
+     * Returns one page of the active whitepapers the current user can read,
+     * newest first unless ascending, with the number of them in total. Returns
+     * null if there are more active whitepapers than the feed holds. Must be
+     * called inside a transaction.
+     */
+    public Pair<List<NodeRef>, Long> getPage(int skipCount, int maxItems, boolean ascending) {
+        Snapshot snapshot = getSnapshot();
+        if (snapshot.truncated) {
+            return null;
+        }
+
+        List<NodeRef> nodeRefs = snapshot.nodeRefs;
+        int size = nodeRefs.size();
+        List<NodeRef> page = new ArrayList<NodeRef>(Math.min(maxItems, size));
+        long readable = 0;
+        for (int i = 0; i < size; i++) {
+            NodeRef nodeRef = nodeRefs.get(ascending ? size - 1 - i : i);
+            if (permissionService.hasPermission(nodeRef, PermissionService.READ) != AccessStatus.ALLOWED) {
+                continue;
+            }
+            if (readable >= skipCount && page.size() < maxItems) {
+                page.add(nodeRef);
+            }
+            readable++;
+        }
+        return new Pair<List<NodeRef>, Long>(page, readable);
+    }
+
+    /**
+     * Drops the list on every server, so the next read rebuilds it.
+     */
+    public void invalidate() {
+        synchronized (this) {
+            generation++;
+        }
+        cache.remove(KEY);
+        if (logger.isDebugEnabled()) logger.debug("Invalidated the whitepaper feed");
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = cache.get(KEY);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        long expected;
+        synchronized (this) {
+            expected = generation;
+        }
+        snapshot = AuthenticationUtil.runAsSystem(this::load);
+        synchronized (this) {
+            // a change committed while loading may not be in the snapshot
+            if (generation == expected) {
+                cache.put(KEY, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the active whitepapers of the Whitepapers folder from the
+     * database and sorts them newest first.
+     */
+    private Snapshot load() {
+        final List<Pair<NodeRef, Long>> found = new ArrayList<Pair<NodeRef, Long>>();
+        NodeRef folder = getWhitepapersFolder();
+        if (folder != null) {
+            for (ChildAssociationRef childAssocRef : nodeService.getChildAssocs(folder, Collections.singleton(TYPE_WHITEPAPER))) {
+                NodeRef nodeRef = childAssocRef.getChildRef();
+                if (!childAssocRef.isPrimary() || !Boolean.TRUE.equals(nodeService.getProperty(nodeRef, PROP_IS_ACTIVE))) {
+                    continue;
+                }
+                Date published = (Date)nodeService.getProperty(nodeRef, PROP_PUBLISHED);
+                found.add(new Pair<NodeRef, Long>(nodeRef, published == null ? 0L : published.getTime()));
+            }
+        }
+
+        Collections.sort(found, new Comparator<Pair<NodeRef, Long>>() {
+            @Override
+            public int compare(Pair<NodeRef, Long> p1, Pair<NodeRef, Long> p2) {
+                int result = Long.compare(p2.getSecond(), p1.getSecond());
+                return result != 0 ? result : p1.getFirst().toString().compareTo(p2.getFirst().toString());
+            }
+        });
+
+        boolean truncated = found.size() > maxEntries;
+        ArrayList<NodeRef> nodeRefs = new ArrayList<NodeRef>(Math.min(found.size(), maxEntries));
+        for (int i = 0; i < found.size() && i < maxEntries; i++) {
+            nodeRefs.add(found.get(i).getFirst());
+        }
+        if (logger.isDebugEnabled()) logger.debug("Loaded whitepaper feed with " + found.size() + " active whitepaper(s)");
+        return new Snapshot(nodeRefs, truncated);
+    }
+
+    private boolean isWhitepapersFolder(NodeRef nodeRef) {
+        return nodeRef != null && nodeRef.equals(getWhitepapersFolder());
+    }
+
+    /**
+     * Returns the NodeRef of the Whitepapers folder, resolving it by name from
+     * Company Home the first time and whenever the cached folder is gone.
+     */
+    private NodeRef getWhitepapersFolder() {
+        NodeRef folder = whitepapersFolder;
+        if (folder != null && nodeService.exists(folder)) {
+            return folder;
+        }
+        folder = AuthenticationUtil.runAsSystem(() -> {
+            NodeRef nodeRef = repositoryHelper.getCompanyHome();
+            for (String name : whitepapersPath) {
+                nodeRef = nodeService.getChildByName(nodeRef, ContentModel.ASSOC_CONTAINS, name);
+                if (nodeRef == null) {
+                    return null;
+                }
+            }
+            return nodeRef;
+        });
+        whitepapersFolder = folder;
+        return folder;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setPermissionService(PermissionService permissionService) {
+        this.permissionService = permissionService;
+    }
+
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+
+    public void setRepositoryHelper(Repository repositoryHelper) {
+        this.repositoryHelper = repositoryHelper;
+    }
+
+    public void setCache(SimpleCache<String, Snapshot> cache) {
+        this.cache = cache;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public List<String> getWhitepapersPath() {
+        return whitepapersPath;
+    }
+
+    public void setWhitepapersPath(List<String> whitepapersPath) {
+        this.whitepapersPath = whitepapersPath;
+    }
+
+    /**
+     * The active whitepapers, newest first, as held in the cache.
+     */
+    public static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<NodeRef> nodeRefs;
+        private final boolean truncated;
+
+        private Snapshot(ArrayList<NodeRef> nodeRefs, boolean truncated) {
+            this.nodeRefs = nodeRefs;
+            this.truncated = truncated;
+        }
+    }
+
+    private class InvalidatingListener extends TransactionListenerAdapter {
+
+        @Override
+        public void afterCommit() {
+            invalidate();
+        }
+    }
+
+}
@@ -9,6 +9,7 @@ public interface SomeCoRatingsModel {
 
     // Types
     public static final String TYPE_SCR_RATING = "rating";
+    public static final String TYPE_SCR_RATING_SHARD = "ratingShard";
 
     // Aspects
     public static final String ASPECT_SCR_RATEABLE = "rateable";
@@ -19,7 +20,12 @@ public interface SomeCoRatingsModel {
     public static final String PROP_AVERAGE_RATING= "averageRating";
     public static final String PROP_TOTAL_RATING= "totalRating";
     public static final String PROP_RATING_COUNT= "ratingCount";
+    public static final String PROP_RATING_HISTOGRAM = "ratingHistogram";
+    public static final String PROP_SHARD_TOTAL = "shardTotal";
+    public static final String PROP_SHARD_COUNT = "shardCount";
+    public static final String PROP_SHARD_HISTOGRAM = "shardHistogram";
 
     // Associations
     public static final String ASSN_SCR_RATINGS = "ratings";
+    public static final String ASSN_SCR_RATING_SHARDS = "ratingShards";
 }
@@ -0,0 +1,137 @@
+package com.someco.scripts;
+
+import java.util.Date;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.jscript.BaseScopableProcessorExtension;
+import org.alfresco.repo.jscript.ScriptNode;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.springframework.extensions.webscripts.Cache;
+
+import com.someco.behavior.ETagBuilder;
+import com.someco.behavior.RaterIndex;
+import com.someco.behavior.RatingPurger;
+import com.someco.behavior.RatingSummary;
+import com.someco.behavior.RatingSummaryCache;
+
+/**
+ * Root scripting object, available to server-side JavaScript as scRatings,
+ * that exposes the Java rating lookups.
+ */
+public class ScriptRatings extends BaseScopableProcessorExtension {
+
+    // Dependencies
+    private NodeService nodeService;
+    private RaterIndex raterIndex;
+    private RatingPurger ratingPurger;
+    private RatingSummaryCache summaryCache;
+
+    // Configuration
+    private double priorMean = 3.0d;
+    private int priorWeight = 5;
+
+    /**
+     * Returns the rating the user left on the node, or 0 if there is none.
+     */
+    public int getUserRating(ScriptNode node, String user) {
+        if (node == null || user == null || user.isEmpty()) {
+            return 0;
+        }
+        return raterIndex.getRating(node.getNodeRef(), user);
+    }
+
+    /**
+     * Returns the cached rating aggregates of the node, or null if the node
+     * is not rateable or has no stored aggregates.
+     */
+    public RatingSummary getRatingSummary(ScriptNode node) {
+        if (node == null) {
+            return null;
+        }
+        return summaryCache.get(node.getNodeRef());
+    }
+
+    /**
+     * Returns the Bayesian weighted score of the summary, using the configured
+     * prior mean and weight.
+     */
+    public double getWeightedScore(RatingSummary summary) {
+        if (summary == null) {
+            return priorMean;
+        }
+        return summary.getWeightedScore(priorMean, priorWeight);
+    }
+
+    /**
+     * Sets the ETag and Last-Modified of a web script response about the
+     * node's rating as seen by the user, and returns the ETag. The tag changes
+     * when the node, its aggregates or the user's rating change.
+     */
+    public String setCacheValidators(Cache cache, ScriptNode node, String user) {
+        Date modified = (Date)nodeService.getProperty(node.getNodeRef(), ContentModel.PROP_MODIFIED);
+        ETagBuilder etagBuilder = new ETagBuilder()
+                .add(node.getNodeRef().getId())
+                .add(modified)
+                .add(getRatingSummary(node))
+                .add(user == null ? 0 : getUserRating(node, user));
+        String etag = etagBuilder.build();
+        cache.setETag(etag);
+        cache.setLastModified(etagBuilder.getLastModified());
+        return etag;
+    }
+
+    /**
+     * True if the value of an If-None-Match request header matches the ETag.
+     */
+    public boolean matchesETag(String ifNoneMatch, String etag) {
+        return ETagBuilder.matches(ifNoneMatch, etag);
+    }
+
+    public RatingSummaryCache getSummaryCache() {
+        return summaryCache;
+    }
+
+    /**
+     * Returns the child association name, in {uri}localName form, that a rating
+     * by the user should be created under.
+     */
+    public String getRaterAssocName(String user) {
+        return RaterIndex.assocQName(user).toString();
+    }
+
+    /**
+     * Deletes every rating of the node and resets its aggregates. Returns the
+     * number of ratings deleted.
+     */
+    public int deleteRatings(ScriptNode node) {
+        if (node == null) {
+            return 0;
+        }
+        return ratingPurger.deleteAll(node.getNodeRef());
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public void setRaterIndex(RaterIndex raterIndex) {
+        this.raterIndex = raterIndex;
+    }
+
+    public void setSummaryCache(RatingSummaryCache summaryCache) {
+        this.summaryCache = summaryCache;
+    }
+
+    public void setPriorMean(double priorMean) {
+        this.priorMean = priorMean;
+    }
+
+    public void setPriorWeight(int priorWeight) {
+        this.priorWeight = priorWeight;
+    }
+
+    public void setRatingPurger(RatingPurger ratingPurger) {
+        this.ratingPurger = ratingPurger;
+    }
+
+}
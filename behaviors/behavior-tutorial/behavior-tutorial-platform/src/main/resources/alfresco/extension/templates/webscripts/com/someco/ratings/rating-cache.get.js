@@ -0,0 +1 @@
+model.cache = scRatings.summaryCache;
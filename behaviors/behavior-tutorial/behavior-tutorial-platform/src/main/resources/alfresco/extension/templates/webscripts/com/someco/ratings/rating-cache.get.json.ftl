@@ -0,0 +1,10 @@
+{"cache" :
+        {
+         "size" : ${cache.size?c},
+         "hits" : ${cache.hits?c},
+         "misses" : ${cache.misses?c},
+         "evictions" : ${cache.evictions?c},
+         "invalidations" : ${cache.invalidations?c},
+         "hitRatio" : ${cache.hitRatio?c}
+        }
+}
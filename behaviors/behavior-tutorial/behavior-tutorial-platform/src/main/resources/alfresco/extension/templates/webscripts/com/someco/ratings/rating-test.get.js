@@ -21,7 +21,7 @@ props["scr:rating"] = ratingValue;
 props["scr:rater"] = person.properties.userName;
 
 // create a new ratings node and set its properties
-var ratingsNode = document.createNode("rating" + new Date().getTime(), "scr:rating", props, "scr:ratings");
+var ratingsNode = document.createNode("rating" + new Date().getTime(), "scr:rating", props, "scr:ratings", scRatings.getRaterAssocName(person.properties.userName));
 ratingsNode.save();
 logger.log("Ratings node saved.");
 
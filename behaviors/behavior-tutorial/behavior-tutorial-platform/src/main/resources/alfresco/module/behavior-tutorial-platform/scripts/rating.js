@@ -43,24 +43,32 @@ function getUserRating(curNode, curUser) {
         return 0;
     }
 
-    var results = curNode.childrenByXPath("*//.[@scr:rater='" + curUser + "']");
-    if (results == undefined || results.length == 0) {
+    var rating = scRatings.getUserRating(curNode, curUser);
+    if (rating == 0) {
         logger.log("No ratings found for this node for user: " + curUser);
-        return 0;
-    } else {
-        var rating = results[results.length - 1].properties["{http://www.someco.com/model/ratings/1.0}rating"];
-        if (rating == undefined) {
-            return 0;
-        } else {
-            return rating;
-        }
     }
+    return rating;
 }
 
 function getRating(curNode, curUser) {
     var rating = {};
-    rating.average = curNode.properties["{http://www.someco.com/model/ratings/1.0}averageRating"];
-    rating.count = curNode.properties["{http://www.someco.com/model/ratings/1.0}ratingCount"];
+    var summary = scRatings.getRatingSummary(curNode);
+    rating.distribution = [];
+    if (summary != null) {
+        rating.average = summary.getAverage();
+        rating.count = summary.getCount();
+        var histogram = summary.getHistogram();
+        if (histogram != null) {
+            for (var star = 0; star < histogram.length; star++) {
+                rating.distribution.push(histogram[star]);
+            }
+        }
+    } else {
+        // nodes rated before the total was stored only have the average and count
+        rating.average = curNode.properties["{http://www.someco.com/model/ratings/1.0}averageRating"];
+        rating.count = curNode.properties["{http://www.someco.com/model/ratings/1.0}ratingCount"];
+    }
+    rating.weightedScore = scRatings.getWeightedScore(summary);
     rating.user = getUserRating(curNode, curUser);
     return rating;
 }
@@ -72,15 +80,7 @@ function deleteRatings(curNode) {
         return;
     }
 
-    // get the node's children
-    var children = curNode.children;
-
-    if (children != null && children.length > 0) {
-        logger.log("Found children...iterating");
-        for (i in children) {
-            var child = children[i];
-            logger.log("Removing child: " + child.id);
-            child.remove();
-        }
-    }
+    // deletes the ratings in chunks and resets the aggregates once at the end
+    var deleted = scRatings.deleteRatings(curNode);
+    logger.log("Removed " + deleted + " rating(s)");
 }
\ No newline at end of file
@@ -19,6 +19,8 @@ public interface SomeCoModel {
     public static final String PROP_VERSION = "version";
     public static final String PROP_PUBLISHED = "published";
     public static final String PROP_IS_ACTIVE = "isActive";
+    public static final String PROP_PUBLISH_FROM = "publishFrom";
+    public static final String PROP_PUBLISH_UNTIL = "publishUntil";
 
     // Associations
     public static final String ASSN_RELATED_DOCUMENTS = "relatedDocuments";
@@ -0,0 +1,172 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.someco.scripts.GetWhitepaperChanges;
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AbstractAlfrescoIT;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that the whitepaper changes only report the whitepapers the caller
+ * can read, and that deleted nodes are only reported if they were
+ * whitepapers.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class GetWhitepaperChangesIT extends AbstractAlfrescoIT {
+
+    private static final String NAMESPACE = "http://www.someco.com/model/content/1.0";
+    private static final QName TYPE_WHITEPAPER = QName.createQName(NAMESPACE, "whitepaper");
+    private static final QName ASPECT_WEBABLE = QName.createQName(NAMESPACE, "webable");
+    private static final QName PROP_IS_ACTIVE = QName.createQName(NAMESPACE, "isActive");
+
+    static Logger log = Logger.getLogger(GetWhitepaperChangesIT.class);
+
+    private GetWhitepaperChanges changesScript;
+    // the first folder on the whitepapers path the test had to create, if any
+    private NodeRef createdFolder;
+    private NodeRef whitepapersFolder;
+
+    @Before
+    public void setUp() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        changesScript = (GetWhitepaperChanges)getApplicationContext().getBean("webscript.com.someco.whitepapers.whitepaper-changes.get");
+
+        whitepapersFolder = getTransactionHelper().doInTransaction(() -> {
+            NodeRef nodeRef = getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null);
+            for (String name : changesScript.getWhitepapersPath()) {
+                NodeRef child = nodeService.getChildByName(nodeRef, ContentModel.ASSOC_CONTAINS, name);
+                if (child == null) {
+                    child = createNode(nodeService, nodeRef, name, ContentModel.TYPE_FOLDER);
+                    if (createdFolder == null) {
+                        createdFolder = child;
+                    }
+                }
+                nodeRef = child;
+            }
+            return nodeRef;
+        }, false, true);
+    }
+
+    @After
+    public void tearDown() {
+        if (createdFolder != null) {
+            getTransactionHelper().doInTransaction(() -> {
+                getServiceRegistry().getNodeService().deleteNode(createdFolder);
+                return null;
+            }, false, true);
+        }
+    }
+
+    @Test
+    public void testGuestOnlySeesReadableWhitepapers() throws InterruptedException {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final PermissionService permissionService = getServiceRegistry().getPermissionService();
+        final String guest = AuthenticationUtil.getGuestUserName();
+        final String name = "Whitepaper Changes Test (" + System.currentTimeMillis() + ")";
+
+        final String since = asUser(guest, () -> (String)changesScript.getChangesSince(null).get("token"));
+
+        final NodeRef open = getTransactionHelper().doInTransaction(() -> {
+            NodeRef nodeRef = createWhitepaper(nodeService, name + " open");
+            permissionService.setPermission(nodeRef, guest, PermissionService.CONSUMER, true);
+            return nodeRef;
+        }, false, true);
+        final NodeRef restricted = getTransactionHelper().doInTransaction(() -> {
+            NodeRef nodeRef = createWhitepaper(nodeService, name + " restricted");
+            permissionService.setInheritParentPermissions(nodeRef, false);
+            return nodeRef;
+        }, false, true);
+        final NodeRef other = getTransactionHelper().doInTransaction(
+                () -> createNode(nodeService, whitepapersFolder, name + " other", ContentModel.TYPE_CONTENT), false, true);
+
+        try {
+            getTransactionHelper().doInTransaction(() -> {
+                nodeService.deleteNode(other);
+                return null;
+            }, false, true);
+
+            // changes are only returned once they have settled
+            Thread.sleep(changesScript.getSettleTime() + 1000);
+
+            Set<String> guestIds = asUser(guest, () -> getChangedIds(since));
+            assertTrue("A whitepaper the guest can read should be reported", guestIds.contains(open.getId()));
+            assertFalse("A whitepaper the guest cannot read must not be reported", guestIds.contains(restricted.getId()));
+            assertFalse("A deleted node that was not a whitepaper must not be reported", guestIds.contains(other.getId()));
+
+            Set<String> adminIds = asUser(AuthenticationUtil.getAdminUserName(), () -> getChangedIds(since));
+            assertTrue(adminIds.contains(restricted.getId()));
+        } finally {
+            getTransactionHelper().doInTransaction(() -> {
+                nodeService.deleteNode(open);
+                nodeService.deleteNode(restricted);
+                return null;
+            }, false, true);
+        }
+    }
+
+    /**
+     * Returns the ids of all the changes since the token, following hasMore.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> getChangedIds(String since) {
+        Set<String> ids = new HashSet<String>();
+        String token = since;
+        boolean hasMore = true;
+        while (hasMore) {
+            Map<String, Object> model = changesScript.getChangesSince(token);
+            for (Map<String, Object> change : (List<Map<String, Object>>)model.get("changes")) {
+                ids.add((String)change.get("id"));
+            }
+            token = (String)model.get("token");
+            hasMore = (Boolean)model.get("hasMore");
+        }
+        return ids;
+    }
+
+    private <T> T asUser(String userName, RetryingTransactionHelper.RetryingTransactionCallback<T> work) {
+        return AuthenticationUtil.runAs(() -> getTransactionHelper().doInTransaction(work, true, true), userName);
+    }
+
+    private NodeRef createWhitepaper(NodeService nodeService, String name) {
+        NodeRef nodeRef = createNode(nodeService, whitepapersFolder, name, TYPE_WHITEPAPER);
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(PROP_IS_ACTIVE, true);
+        nodeService.addAspect(nodeRef, ASPECT_WEBABLE, props);
+        return nodeRef;
+    }
+
+    private RetryingTransactionHelper getTransactionHelper() {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+    }
+
+    private static NodeRef createNode(NodeService nodeService, NodeRef parent, String name, QName type) {
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(ContentModel.PROP_NAME, name);
+        return nodeService.createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                type, props).getChildRef();
+    }
+
+}
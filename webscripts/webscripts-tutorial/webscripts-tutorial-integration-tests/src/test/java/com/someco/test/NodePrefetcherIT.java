@@ -0,0 +1,260 @@
+package com.someco.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.someco.beans.NodePrefetcher;
+import com.someco.beans.NodeSnapshot;
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AbstractAlfrescoIT;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.cache.TransactionalCache;
+import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.InterceptorChain;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the database round trips needed to load the metadata of a page of
+ * nodes one node at a time with loading it through the NodePrefetcher.
+ *
+ * Each run reads past the shared node caches for its own transaction only, and
+ * every MyBatis select issued by the test thread is counted while the run
+ * lasts, so the counts are the queries a page costs when none of its nodes
+ * are cached. Neither is left behind for the rest of the repository.
+ */
+@RunWith(value = AlfrescoTestRunner.class)
+public class NodePrefetcherIT extends AbstractAlfrescoIT {
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String[] NODE_CACHES = {
+            "node.nodesCache", "node.aspectsCache", "node.propertiesCache" };
+
+    static Logger log = Logger.getLogger(NodePrefetcherIT.class);
+
+    private NodeRef folder;
+    private List<NodeRef> page;
+
+    @Before
+    public void setUp() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final String name = "Node Prefetcher Test (" + System.currentTimeMillis() + ")";
+
+        page = new ArrayList<NodeRef>(PAGE_SIZE);
+        folder = getTransactionHelper().doInTransaction(() -> {
+            NodeRef companyHome = getServiceRegistry().getNodeLocatorService().getNode(CompanyHomeNodeLocator.NAME, null, null);
+            NodeRef folderRef = createNode(nodeService, companyHome, name, ContentModel.TYPE_FOLDER);
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                NodeRef nodeRef = createNode(nodeService, folderRef, "whitepaper-" + i + ".txt", ContentModel.TYPE_CONTENT);
+                nodeService.addAspect(nodeRef, ContentModel.ASPECT_TITLED, null);
+                nodeService.setProperty(nodeRef, ContentModel.PROP_TITLE, "Whitepaper " + i);
+                page.add(nodeRef);
+            }
+            return folderRef;
+        }, false, true);
+    }
+
+    @After
+    public void tearDown() {
+        getTransactionHelper().doInTransaction(() -> {
+            getServiceRegistry().getNodeService().deleteNode(folder);
+            return null;
+        }, false, true);
+    }
+
+    @Test
+    public void testSnapshotsMatchNodeService() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final NodePrefetcher prefetcher = getNodePrefetcher();
+
+        getTransactionHelper().doInTransaction(() -> {
+            Map<NodeRef, NodeSnapshot> snapshots = prefetcher.prefetch(page);
+            assertEquals(page, new ArrayList<NodeRef>(snapshots.keySet()));
+            for (NodeRef nodeRef : page) {
+                NodeSnapshot snapshot = snapshots.get(nodeRef);
+                assertEquals(nodeService.getProperties(nodeRef), snapshot.getProperties());
+                assertEquals(nodeService.getAspects(nodeRef), snapshot.getAspects());
+            }
+            return null;
+        }, true, true);
+    }
+
+    @Test
+    public void testUnreadableNodesLeftOut() {
+        final PermissionService permissionService = getServiceRegistry().getPermissionService();
+        final NodePrefetcher prefetcher = getNodePrefetcher();
+        final String guest = AuthenticationUtil.getGuestUserName();
+        final NodeRef restricted = page.get(0);
+        final NodeRef open = page.get(1);
+
+        getTransactionHelper().doInTransaction(() -> {
+            permissionService.setInheritParentPermissions(restricted, false);
+            permissionService.setPermission(open, guest, PermissionService.CONSUMER, true);
+            return null;
+        }, false, true);
+
+        Map<NodeRef, NodeSnapshot> snapshots = AuthenticationUtil.runAs(() -> getTransactionHelper().doInTransaction(
+                () -> prefetcher.prefetch(Arrays.asList(restricted, open)), true, true), guest);
+        assertEquals(Arrays.asList(open), new ArrayList<NodeRef>(snapshots.keySet()));
+    }
+
+    @Test
+    public void testRoundTripsPerPage() {
+        final NodeService nodeService = getServiceRegistry().getNodeService();
+        final NodePrefetcher prefetcher = getNodePrefetcher();
+
+        long start = System.currentTimeMillis();
+        int perNode = countQueries(() -> {
+            for (NodeRef nodeRef : page) {
+                nodeService.getProperties(nodeRef);
+                nodeService.getAspects(nodeRef);
+            }
+        });
+        long perNodeTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        int prefetched = countQueries(() -> prefetcher.prefetch(page));
+        long prefetchedTime = System.currentTimeMillis() - start;
+
+        log.info("Loading a page of " + PAGE_SIZE + " nodes: " + perNode + " queries in " + perNodeTime + "ms one node at a time, "
+                + prefetched + " queries in " + prefetchedTime + "ms prefetched");
+        assertTrue("Prefetching should need fewer queries than loading node by node", prefetched < perNode);
+    }
+
+    private int countQueries(final Runnable work) {
+        Configuration configuration = ((SqlSessionFactory)getApplicationContext().getBean("repoSqlSessionFactory")).getConfiguration();
+        // the interceptor wraps the executors of sessions opened while it is registered,
+        // so it is added before the transaction starts and removed once it is over
+        QueryCounter counter = new QueryCounter();
+        configuration.addInterceptor(counter);
+
+        int queries;
+        QueryCounter.start();
+        try {
+            getTransactionHelper().doInTransaction(() -> {
+                bypassSharedNodeCaches();
+                work.run();
+                return null;
+            }, true, true);
+        } finally {
+            queries = QueryCounter.stop();
+            removeInterceptor(configuration, counter);
+        }
+        return queries;
+    }
+
+    /**
+     * Makes the current transaction read past the shared node caches, as if
+     * none of the nodes had been loaded before. Other transactions are not
+     * affected.
+     */
+    private void bypassSharedNodeCaches() {
+        for (String cacheName : NODE_CACHES) {
+            ((TransactionalCache<?, ?>)getApplicationContext().getBean(cacheName)).setDisableSharedCacheReadForTransaction(true);
+        }
+    }
+
+    /**
+     * MyBatis has no way to remove an interceptor, so it is taken out of the
+     * configuration's interceptor chain directly.
+     */
+    @SuppressWarnings("unchecked")
+    private static void removeInterceptor(Configuration configuration, Interceptor interceptor) {
+        try {
+            Field chainField = Configuration.class.getDeclaredField("interceptorChain");
+            chainField.setAccessible(true);
+            InterceptorChain chain = (InterceptorChain)chainField.get(configuration);
+            Field interceptorsField = InterceptorChain.class.getDeclaredField("interceptors");
+            interceptorsField.setAccessible(true);
+            ((List<Interceptor>)interceptorsField.get(chain)).remove(interceptor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not remove the query counter from MyBatis", e);
+        }
+    }
+
+    private NodePrefetcher getNodePrefetcher() {
+        return (NodePrefetcher)getApplicationContext().getBean("nodePrefetcher");
+    }
+
+    private RetryingTransactionHelper getTransactionHelper() {
+        return getServiceRegistry().getTransactionService().getRetryingTransactionHelper();
+    }
+
+    private static NodeRef createNode(NodeService nodeService, NodeRef parent, String name, QName type) {
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(ContentModel.PROP_NAME, name);
+        return nodeService.createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, QName.createValidLocalName(name)),
+                type, props).getChildRef();
+    }
+
+    @Intercepts({
+            @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+            @Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class }) })
+    public static class QueryCounter implements Interceptor {
+
+        private static final ThreadLocal<int[]> count = new ThreadLocal<int[]>();
+
+        static void start() {
+            count.set(new int[1]);
+        }
+
+        static int stop() {
+            int[] counted = count.get();
+            count.remove();
+            return counted == null ? 0 : counted[0];
+        }
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            int[] counted = count.get();
+            if (counted != null) {
+                counted[0]++;
+            }
+            return invocation.proceed();
+        }
+
+        @Override
+        public Object plugin(Object target) {
+            return Plugin.wrap(target, this);
+        }
+
+        @Override
+        public void setProperties(Properties properties) {
+        }
+    }
+
+}
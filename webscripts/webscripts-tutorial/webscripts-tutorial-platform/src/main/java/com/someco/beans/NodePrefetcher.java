@@ -0,0 +1,113 @@
+package com.someco.beans;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.node.MLPropertyInterceptor;
+import org.alfresco.service.cmr.repository.MLText;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.log4j.Logger;
+import org.springframework.extensions.surf.util.I18NUtil;
+
+/**
+ * Loads the metadata of a page of nodes in bulk. The nodes, their aspects and
+ * their properties are pulled into the node caches with a few batched
+ * queries, rather than one or more queries per node, and each
+ * {@link NodeSnapshot} is then filled straight from the NodeDAO by node id,
+ * without going through the NodeService interceptors for every value.
+ * Anything else that reads the same nodes through the NodeService in the same
+ * transaction, such as the rating aggregates, is served from the warmed
+ * caches too.
+ *
+ * Multilingual text is resolved to the content locale, as the NodeService
+ * does for callers that are not ML aware.
+ *
+ * Nodes that do not exist or that the current user cannot read are left out,
+ * so one such id does not fail the whole page.
+ *
+ * Must be called inside a transaction.
+ */
+public class NodePrefetcher {
+
+    // Dependencies
+    private NodeDAO nodeDAO;
+    private PermissionService permissionService;
+
+    private Logger logger = Logger.getLogger(NodePrefetcher.class);
+
+    /**
+     * Returns a snapshot with every property of each readable node that
+     * exists, in the order of the given list.
+     */
+    public Map<NodeRef, NodeSnapshot> prefetch(List<NodeRef> nodeRefs) {
+        return prefetch(nodeRefs, null);
+    }
+
+    /**
+     * Returns a snapshot of each readable node that exists, in the order of
+     * the given list, holding only the named properties. Properties that are not named
+     * are not converted, so for example the content data of a node is only
+     * read when cm:content is asked for. A null propNames loads them all.
+     */
+    public Map<NodeRef, NodeSnapshot> prefetch(List<NodeRef> nodeRefs, Collection<QName> propNames) {
+        Map<NodeRef, NodeSnapshot> snapshots = new LinkedHashMap<NodeRef, NodeSnapshot>(nodeRefs.size() * 2);
+        if (nodeRefs.isEmpty()) {
+            return snapshots;
+        }
+
+        long start = System.currentTimeMillis();
+        nodeDAO.cacheNodes(nodeRefs);
+
+        boolean mlAware = MLPropertyInterceptor.isMLAware();
+        for (NodeRef nodeRef : nodeRefs) {
+            // null for nodes that do not exist or have been deleted
+            Pair<Long, NodeRef> nodePair = nodeDAO.getNodePair(nodeRef);
+            if (nodePair == null
+                    || permissionService.hasPermission(nodeRef, PermissionService.READ) != AccessStatus.ALLOWED) {
+                continue;
+            }
+            Long nodeId = nodePair.getFirst();
+            Map<QName, Serializable> props;
+            if (propNames == null) {
+                // copied, as multilingual values are replaced below
+                props = new HashMap<QName, Serializable>(nodeDAO.getNodeProperties(nodeId));
+            } else {
+                props = new HashMap<QName, Serializable>(propNames.size() * 2);
+                for (QName propName : propNames) {
+                    props.put(propName, nodeDAO.getNodeProperty(nodeId, propName));
+                }
+            }
+            if (!mlAware) {
+                for (Map.Entry<QName, Serializable> prop : props.entrySet()) {
+                    if (prop.getValue() instanceof MLText) {
+                        prop.setValue(((MLText)prop.getValue()).getClosestValue(I18NUtil.getContentLocale()));
+                    }
+                }
+            }
+            Set<QName> aspects = nodeDAO.getNodeAspects(nodeId);
+            snapshots.put(nodeRef, new NodeSnapshot(nodeRef, props, aspects));
+        }
+
+        if (logger.isDebugEnabled()) logger.debug("Prefetched " + snapshots.size() + " of " + nodeRefs.size() + " node(s) in " + (System.currentTimeMillis() - start) + "ms");
+        return snapshots;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO) {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setPermissionService(PermissionService permissionService) {
+        this.permissionService = permissionService;
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.someco.beans;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Properties and aspects of a node as loaded by the {@link NodePrefetcher}.
+ * Templates and controllers read the node from here instead of going back to
+ * the NodeService for each value.
+ */
+public class NodeSnapshot {
+
+    private final NodeRef nodeRef;
+    private final Map<QName, Serializable> properties;
+    private final Set<QName> aspects;
+
+    public NodeSnapshot(NodeRef nodeRef, Map<QName, Serializable> properties, Set<QName> aspects) {
+        this.nodeRef = nodeRef;
+        this.properties = Collections.unmodifiableMap(properties);
+        this.aspects = Collections.unmodifiableSet(aspects);
+    }
+
+    public NodeRef getNodeRef() {
+        return nodeRef;
+    }
+
+    public String getId() {
+        return nodeRef.getId();
+    }
+
+    public Map<QName, Serializable> getProperties() {
+        return properties;
+    }
+
+    public Serializable getProperty(QName propName) {
+        return properties.get(propName);
+    }
+
+    public Set<QName> getAspects() {
+        return aspects;
+    }
+
+    public boolean hasAspect(QName aspect) {
+        return aspects.contains(aspect);
+    }
+
+    public String getName() {
+        return (String)properties.get(ContentModel.PROP_NAME);
+    }
+
+    public String getTitle() {
+        return toString(properties.get(ContentModel.PROP_TITLE));
+    }
+
+    public String getDescription() {
+        return toString(properties.get(ContentModel.PROP_DESCRIPTION));
+    }
+
+    public Date getModified() {
+        return (Date)properties.get(ContentModel.PROP_MODIFIED);
+    }
+
+    public String getMimetype() {
+        ContentData content = (ContentData)properties.get(ContentModel.PROP_CONTENT);
+        return content == null ? "" : content.getMimetype();
+    }
+
+    public long getSize() {
+        ContentData content = (ContentData)properties.get(ContentModel.PROP_CONTENT);
+        return content == null ? 0L : content.getSize();
+    }
+
+    private static String toString(Serializable value) {
+        return value == null ? "" : value.toString();
+    }
+
+}
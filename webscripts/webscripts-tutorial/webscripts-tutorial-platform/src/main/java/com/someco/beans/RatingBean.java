@@ -1,27 +1,107 @@
 package com.someco.beans;
 
 import java.io.Serializable;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.alfresco.repo.policy.BehaviourFilter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.namespace.QName;
 import org.apache.log4j.Logger;
 
+import com.someco.behavior.RaterIndex;
+import com.someco.behavior.Rating;
+import com.someco.behavior.RatingDelta;
 import com.someco.model.SomeCoRatingsModel;
 
 public class RatingBean {
 
     // Dependencies
     private NodeService nodeService;
+    private BehaviourFilter behaviourFilter;
+    private Rating ratingBehavior;
+    private RaterIndex raterIndex;
+
+    // Configuration
+    private boolean upsert = true;
 
     private Logger logger = Logger.getLogger(RatingBean.class);
 
+    /**
+     * Records the user's rating of the node. In upsert mode an existing rating
+     * by the same user is updated in place rather than adding another one.
+     */
     public void create(final NodeRef nodeRef, final int rating, final String user) {
         logger.debug("Inside RatingBean.create()");
 
+        addRateableAspect(nodeRef);
+        NodeRef ratingRef = upsert ? raterIndex.findRating(nodeRef, user) : null;
+        if (ratingRef != null) {
+            logger.debug("Updating existing rating");
+            nodeService.setProperty(ratingRef, ratingQName(), rating);
+        } else {
+            createRating(nodeRef, rating, user);
+        }
+    }
+
+    /**
+     * Creates several ratings on the same node at once. The rating behavior is
+     * switched off while the ratings are created and their combined change is
+     * handed to it afterwards in one piece, so it is written the way the
+     * behavior is configured to write aggregates. Must be called inside a
+     * transaction.
+     */
+    public void createAll(final NodeRef nodeRef, final List<RatingItem> items) {
+        logger.debug("Inside RatingBean.createAll()");
+
+        addRateableAspect(nodeRef);
+
+        QName ratingType = QName.createQName(
+                SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
+                SomeCoRatingsModel.TYPE_SCR_RATING);
+        RatingDelta delta = new RatingDelta();
+        behaviourFilter.disableBehaviour(ratingType);
+        try {
+            for (RatingItem item : items) {
+                RatingDelta itemDelta = storeRating(nodeRef, item.getRating(), item.getUser());
+                itemDelta.setShardKey(item.getUser());
+                delta.merge(itemDelta);
+            }
+        } finally {
+            behaviourFilter.enableBehaviour(ratingType);
+        }
+
+        ratingBehavior.aggregate(nodeRef, delta);
+    }
+
+    /**
+     * Creates or, in upsert mode, updates the user's rating and returns the
+     * change it makes to the node's aggregates.
+     */
+    private RatingDelta storeRating(final NodeRef nodeRef, final int rating, final String user) {
+        NodeRef ratingRef = upsert ? raterIndex.findRating(nodeRef, user) : null;
+        if (ratingRef == null) {
+            createRating(nodeRef, rating, user);
+            return RatingDelta.forRating(rating, 1);
+        }
+
+        Integer oldRating = (Integer)nodeService.getProperty(ratingRef, ratingQName());
+        nodeService.setProperty(ratingRef, ratingQName(), rating);
+        if (oldRating == null) {
+            return RatingDelta.rescan();
+        }
+        return RatingDelta.forChange(oldRating, rating);
+    }
+
+    private static QName ratingQName() {
+        return QName.createQName(
+                SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
+                SomeCoRatingsModel.PROP_RATING);
+    }
+
+    private void addRateableAspect(final NodeRef nodeRef) {
         // add the aspect to this document if it needs it
         if (nodeService.hasAspect(nodeRef, QName.createQName(
                 SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
@@ -35,7 +115,9 @@ public class RatingBean {
                     SomeCoRatingsModel.ASPECT_SCR_RATEABLE),
                 null);
         }
+    }
 
+    private void createRating(final NodeRef nodeRef, final int rating, final String user) {
         Map<QName, Serializable> props = new HashMap<QName, Serializable>();
         props.put(QName.createQName(
                 SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
@@ -50,9 +132,7 @@ public class RatingBean {
             QName.createQName(
                 SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
                 SomeCoRatingsModel.ASSN_SCR_RATINGS),
-            QName.createQName(
-                SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
-                "rating" + new Date().getTime()),
+            RaterIndex.assocQName(user),
             QName.createQName(
                 SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL,
                 SomeCoRatingsModel.TYPE_SCR_RATING),
@@ -67,4 +147,36 @@ public class RatingBean {
         this.nodeService = nodeService;
     }
 
-}
\ No newline at end of file
+    public BehaviourFilter getBehaviourFilter() {
+        return behaviourFilter;
+    }
+
+    public void setBehaviourFilter(BehaviourFilter behaviourFilter) {
+        this.behaviourFilter = behaviourFilter;
+    }
+
+    public Rating getRatingBehavior() {
+        return ratingBehavior;
+    }
+
+    public void setRatingBehavior(Rating ratingBehavior) {
+        this.ratingBehavior = ratingBehavior;
+    }
+
+    public RaterIndex getRaterIndex() {
+        return raterIndex;
+    }
+
+    public void setRaterIndex(RaterIndex raterIndex) {
+        this.raterIndex = raterIndex;
+    }
+
+    public boolean isUpsert() {
+        return upsert;
+    }
+
+    public void setUpsert(boolean upsert) {
+        this.upsert = upsert;
+    }
+
+}
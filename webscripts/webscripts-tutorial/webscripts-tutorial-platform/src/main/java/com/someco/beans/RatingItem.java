@@ -0,0 +1,57 @@
+package com.someco.beans;
+
+/**
+ * One rating of a bulk rating.post request together with the outcome of
+ * storing it.
+ */
+public class RatingItem {
+
+    private final int index;
+    private final String id;
+    private final int rating;
+    private final String user;
+
+    private int status;
+    private String message;
+
+    public RatingItem(int index, String id, int rating, String user) {
+        this.index = index;
+        this.id = id;
+        this.rating = rating;
+        this.user = user;
+    }
+
+    public boolean isValid() {
+        return id != null && !id.isEmpty() && rating != 0 && user != null && !user.isEmpty();
+    }
+
+    public void setOutcome(int status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getRating() {
+        return rating;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+}
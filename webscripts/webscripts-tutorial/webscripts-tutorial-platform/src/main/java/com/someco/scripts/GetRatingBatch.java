@@ -0,0 +1,180 @@
+package com.someco.scripts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.someco.beans.NodePrefetcher;
+import com.someco.behavior.RatingSummary;
+import com.someco.behavior.RatingSummaryCache;
+
+/**
+ * This is the controller for the rating-batch web scripts.
+ *
+ * Returns the ratings of many nodes in one compact response for the star
+ * widgets of rating-script.js. The ids argument is a comma separated list of
+ * node ids and may be posted as a form field when it is too long for a URL.
+ * Each node that exists and that the caller can read is returned as
+ *
+ *   "id" : ["22100", 2.5, 4]
+ *
+ * that is the state of each star (2 on, 1 half, 0 off), the average and the
+ * number of ratings, so the browser only has to pick an image per star.
+ *
+ * The response is gzip compressed when the client accepts it and at least
+ * compressThreshold ids were asked for.
+ */
+public class GetRatingBatch extends AbstractWebScript {
+
+    public static final int NUMBER_OF_STARS = 5;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    Logger logger = Logger.getLogger(GetRatingBatch.class);
+
+    private RatingSummaryCache ratingSummaryCache;
+    private NodePrefetcher nodePrefetcher;
+    private int maxIds = 1000;
+    private int compressThreshold = 20;
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        String ids = req.getParameter("ids");
+        if (ids == null || ids.trim().isEmpty()) {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Node ids have not been provided");
+        }
+
+        Set<NodeRef> nodeRefs = new LinkedHashSet<NodeRef>();
+        for (String id : ids.split(",")) {
+            id = id.trim();
+            if (id.isEmpty()) {
+                continue;
+            }
+            NodeRef nodeRef = PostRating.toNodeRef(id);
+            if (nodeRef == null) {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Invalid node id: " + id);
+            }
+            nodeRefs.add(nodeRef);
+        }
+        if (nodeRefs.size() > maxIds) {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "At most " + maxIds + " ids can be asked for at once");
+        }
+
+        // warms the node caches for the aggregates of the cache misses and
+        // leaves out nodes that do not exist or that the caller cannot read
+        List<NodeRef> existing = new ArrayList<NodeRef>(
+                nodePrefetcher.prefetch(new ArrayList<NodeRef>(nodeRefs), Collections.<QName>emptySet()).keySet());
+        if (logger.isDebugEnabled()) logger.debug("Returning ratings of " + existing.size() + " of " + nodeRefs.size() + " nodes");
+
+        res.setContentType("application/json;charset=UTF-8");
+        res.setHeader("Vary", "Accept-Encoding");
+
+        boolean compress = nodeRefs.size() >= compressThreshold && acceptsGzip(req);
+        OutputStream out = res.getOutputStream();
+        if (compress) {
+            res.setHeader("Content-Encoding", "gzip");
+            out = new GZIPOutputStream(out, 8192);
+        }
+
+        DecimalFormat numberFormat = new DecimalFormat("0.###", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                JsonGenerator json = JSON_FACTORY.createGenerator(writer)) {
+            json.writeStartObject();
+            json.writeNumberField("stars", NUMBER_OF_STARS);
+            json.writeObjectFieldStart("ratings");
+            for (NodeRef nodeRef : existing) {
+                RatingSummary summary = ratingSummaryCache.get(nodeRef);
+                double average = summary == null ? 0d : summary.getAverage();
+                json.writeArrayFieldStart(nodeRef.getId());
+                json.writeString(getStarStates(average));
+                json.writeNumber(numberFormat.format(average));
+                json.writeNumber(summary == null ? 0 : summary.getCount());
+                json.writeEndArray();
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+    }
+
+    /**
+     * Returns the state of each star for the average, the same way the star
+     * widget used to work it out in the browser: a full star for every whole
+     * point, a half star for any remainder and empty stars after that.
+     */
+    public static String getStarStates(double average) {
+        StringBuilder states = new StringBuilder(NUMBER_OF_STARS);
+        double rating = average > NUMBER_OF_STARS || average < 0 ? 0 : average;
+        for (int i = 0; i < NUMBER_OF_STARS; i++) {
+            if (rating >= 1) {
+                states.append('2');
+                rating--;
+            } else if (rating > 0) {
+                states.append('1');
+                rating = 0;
+            } else {
+                states.append('0');
+            }
+        }
+        return states.toString();
+    }
+
+    private static boolean acceptsGzip(WebScriptRequest req) {
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ENGLISH).contains("gzip");
+    }
+
+    public RatingSummaryCache getRatingSummaryCache() {
+        return ratingSummaryCache;
+    }
+
+    public void setRatingSummaryCache(RatingSummaryCache ratingSummaryCache) {
+        this.ratingSummaryCache = ratingSummaryCache;
+    }
+
+    public NodePrefetcher getNodePrefetcher() {
+        return nodePrefetcher;
+    }
+
+    public void setNodePrefetcher(NodePrefetcher nodePrefetcher) {
+        this.nodePrefetcher = nodePrefetcher;
+    }
+
+    public int getMaxIds() {
+        return maxIds;
+    }
+
+    public void setMaxIds(int maxIds) {
+        this.maxIds = maxIds;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+}
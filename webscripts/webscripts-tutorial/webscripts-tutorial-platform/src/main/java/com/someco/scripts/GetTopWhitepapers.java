@@ -0,0 +1,98 @@
+package com.someco.scripts;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.apache.log4j.Logger;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import com.someco.behavior.RatingLeaderboard;
+
+/**
+ * This is the controller for the top-whitepapers.get web script.
+ *
+ * Returns the best rated active whitepapers, overall or for the product
+ * argument, straight from the rating leaderboard, so answering costs one
+ * read per whitepaper returned rather than a search.
+ */
+public class GetTopWhitepapers extends DeclarativeWebScript {
+
+    Logger logger = Logger.getLogger(GetTopWhitepapers.class);
+
+    private RatingLeaderboard ratingLeaderboard;
+    private NodeService nodeService;
+    private int defaultMaxItems = 10;
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req,
+            Status status) {
+        String product = req.getParameter("product");
+        int maxItems = defaultMaxItems;
+        String max = req.getParameter("maxItems");
+        if (max != null && !max.isEmpty()) {
+            try {
+                maxItems = Integer.parseInt(max);
+            } catch (NumberFormatException e) {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "maxItems must be a number");
+            }
+            if (maxItems < 1) {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "maxItems must be at least 1");
+            }
+        }
+
+        List<RatingLeaderboard.Entry> top = ratingLeaderboard.getTop(product, maxItems);
+        if (logger.isDebugEnabled()) logger.debug("Returning " + top.size() + " top whitepapers for product " + product);
+
+        DecimalFormat numberFormat = new DecimalFormat("0.###", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+        List<Map<String, Object>> whitepapers = new ArrayList<Map<String, Object>>(top.size());
+        for (RatingLeaderboard.Entry entry : top) {
+            Map<String, Object> whitepaper = new HashMap<String, Object>();
+            whitepaper.put("id", entry.getNodeRef().getId());
+            whitepaper.put("name", nodeService.getProperty(entry.getNodeRef(), ContentModel.PROP_NAME));
+            whitepaper.put("title", nodeService.getProperty(entry.getNodeRef(), ContentModel.PROP_TITLE));
+            whitepaper.put("average", numberFormat.format(entry.getAverage()));
+            whitepaper.put("count", entry.getCount());
+            whitepapers.add(whitepaper);
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("whitepapers", whitepapers);
+        model.put("product", product);
+        return model;
+    }
+
+    public RatingLeaderboard getRatingLeaderboard() {
+        return ratingLeaderboard;
+    }
+
+    public void setRatingLeaderboard(RatingLeaderboard ratingLeaderboard) {
+        this.ratingLeaderboard = ratingLeaderboard;
+    }
+
+    public NodeService getNodeService() {
+        return nodeService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public int getDefaultMaxItems() {
+        return defaultMaxItems;
+    }
+
+    public void setDefaultMaxItems(int defaultMaxItems) {
+        this.defaultMaxItems = defaultMaxItems;
+    }
+
+}
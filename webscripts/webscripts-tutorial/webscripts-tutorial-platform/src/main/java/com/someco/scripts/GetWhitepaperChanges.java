@@ -0,0 +1,314 @@
+package com.someco.scripts;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.model.Repository;
+import org.alfresco.repo.search.SearchTrackingComponent;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.solr.NodeParameters;
+import org.alfresco.repo.solr.Transaction;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.service.namespace.QName;
+import org.apache.log4j.Logger;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+import com.someco.behavior.RatingSummary;
+import com.someco.behavior.RatingSummaryCache;
+import com.someco.model.SomeCoModel;
+import com.someco.model.SomeCoRatingsModel;
+
+/**
+ * This is the controller for the whitepaper-changes.get web script.
+ *
+ * Returns the whitepapers that changed since the since token: added, edited,
+ * activated or deactivated, moved, deleted or re-rated. Changes are read from
+ * the transactions the repository has committed, the same way the search
+ * index tracks the repository, so no query runs against the index. Each
+ * whitepaper is reported once with its current state, as an "upsert" while
+ * it is an active whitepaper in the Whitepapers folder and as a "remove"
+ * otherwise. A change to a rating or rating shard is reported against the
+ * whitepaper it belongs to.
+ *
+ * The token is the commit time up to which changes have been returned.
+ * Transactions that committed less than settleTime ago are left for the next
+ * request, so a transaction still committing is not skipped. Without a since
+ * token only the current token is returned. When more than maxTransactions
+ * transactions are pending, hasMore is set and the client should ask again
+ * with the new token straight away.
+ *
+ * Only whitepapers the caller can read are reported. The changes are read
+ * as the system user, so each whitepaper is checked for read permission as
+ * the caller before it is reported either way. A whitepaper that has been
+ * deleted is reported as removed, by id only, if it is in the archive store
+ * and was a whitepaper; other deleted nodes are not reported.
+ */
+public class GetWhitepaperChanges extends DeclarativeWebScript {
+
+    private static final QName TYPE_WHITEPAPER = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.TYPE_SC_WHITEPAPER);
+    private static final QName PROP_IS_ACTIVE = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE);
+    private static final QName TYPE_RATING = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING);
+    private static final QName TYPE_RATING_SHARD = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.TYPE_SCR_RATING_SHARD);
+
+    private static final int TOKEN_RADIX = 36;
+
+    Logger logger = Logger.getLogger(GetWhitepaperChanges.class);
+
+    private SearchTrackingComponent searchTrackingComponent;
+    private NodeService nodeService;
+    private PermissionService permissionService;
+    private DictionaryService dictionaryService;
+    private Repository repositoryHelper;
+    private RatingSummaryCache ratingSummaryCache;
+    private List<String> whitepapersPath = Collections.emptyList();
+    private int maxTransactions = 500;
+    private long settleTime = 5000;
+
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req,
+            Status status) {
+        return getChangesSince(req.getParameter("since"));
+    }
+
+    /**
+     * Returns the model for the changes since the token that the current
+     * user can read. Must be called inside a transaction.
+     */
+    public Map<String, Object> getChangesSince(String since) {
+        long until = System.currentTimeMillis() - settleTime;
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        List<Map<String, Object>> changes = new ArrayList<Map<String, Object>>();
+        model.put("changes", changes);
+
+        if (since == null || since.isEmpty()) {
+            logger.debug("No since token, returning the current token");
+            model.put("token", encodeToken(until));
+            model.put("hasMore", false);
+            return model;
+        }
+
+        final long from = decodeToken(since);
+        final List<Transaction> txns = from < until
+                ? searchTrackingComponent.getTransactions(null, from, null, until, maxTransactions)
+                : Collections.<Transaction>emptyList();
+        boolean hasMore = txns.size() >= maxTransactions;
+
+        long next = Math.max(from, until);
+        if (hasMore) {
+            // the transactions at the last commit time are read again by the
+            // next request, unless that would not move the token on at all
+            next = Math.max(txns.get(txns.size() - 1).getCommitTimeMs(), from + 1);
+        }
+
+        if (!txns.isEmpty()) {
+            final String caller = AuthenticationUtil.getRunAsUser();
+            changes.addAll(AuthenticationUtil.runAsSystem(() -> getChanges(txns, caller)));
+        }
+        if (logger.isDebugEnabled()) logger.debug("Found " + changes.size() + " whitepaper change(s) in " + txns.size() + " transaction(s)");
+
+        model.put("token", encodeToken(next));
+        model.put("hasMore", hasMore);
+        return model;
+    }
+
+    private List<Map<String, Object>> getChanges(List<Transaction> txns, String caller) {
+        List<Long> txnIds = new ArrayList<Long>(txns.size());
+        for (Transaction txn : txns) {
+            txnIds.add(txn.getId());
+        }
+
+        NodeParameters nodeParameters = new NodeParameters();
+        nodeParameters.setTransactionIds(txnIds);
+        nodeParameters.setStoreProtocol(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE.getProtocol());
+        nodeParameters.setStoreIdentifier(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE.getIdentifier());
+
+        final Set<NodeRef> changedNodes = new LinkedHashSet<NodeRef>();
+        searchTrackingComponent.getNodes(nodeParameters, node -> {
+            changedNodes.add(node.getNodeRef());
+            return true;
+        });
+
+        NodeRef folder = getWhitepapersFolder();
+        DecimalFormat numberFormat = new DecimalFormat("0.###", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+
+        Map<NodeRef, Map<String, Object>> changes = new LinkedHashMap<NodeRef, Map<String, Object>>();
+        for (NodeRef nodeRef : changedNodes) {
+            if (!nodeService.exists(nodeRef)) {
+                if (wasWhitepaper(nodeRef)) {
+                    changes.put(nodeRef, removed(nodeRef));
+                }
+                continue;
+            }
+
+            QName type = nodeService.getType(nodeRef);
+            NodeRef whitepaperRef = nodeRef;
+            if (type.equals(TYPE_RATING) || type.equals(TYPE_RATING_SHARD)) {
+                whitepaperRef = nodeService.getPrimaryParent(nodeRef).getParentRef();
+                type = nodeService.getType(whitepaperRef);
+            }
+            if (!dictionaryService.isSubClass(type, TYPE_WHITEPAPER) || changes.containsKey(whitepaperRef)
+                    || !canRead(whitepaperRef, caller)) {
+                continue;
+            }
+
+            boolean active = Boolean.TRUE.equals(nodeService.getProperty(whitepaperRef, PROP_IS_ACTIVE))
+                    && folder != null && folder.equals(nodeService.getPrimaryParent(whitepaperRef).getParentRef());
+            if (!active) {
+                changes.put(whitepaperRef, removed(whitepaperRef));
+                continue;
+            }
+
+            Map<String, Object> change = new HashMap<String, Object>();
+            change.put("id", whitepaperRef.getId());
+            change.put("action", "upsert");
+            change.put("name", nodeService.getProperty(whitepaperRef, ContentModel.PROP_NAME));
+            change.put("title", nodeService.getProperty(whitepaperRef, ContentModel.PROP_TITLE));
+            change.put("modified", (Date)nodeService.getProperty(whitepaperRef, ContentModel.PROP_MODIFIED));
+            RatingSummary summary = ratingSummaryCache.get(whitepaperRef);
+            change.put("ratingAverage", summary == null ? "0" : numberFormat.format(summary.getAverage()));
+            change.put("ratingCount", summary == null ? 0 : summary.getCount());
+            changes.put(whitepaperRef, change);
+        }
+        return new ArrayList<Map<String, Object>>(changes.values());
+    }
+
+    /**
+     * True if the deleted node was archived as a whitepaper.
+     */
+    private boolean wasWhitepaper(NodeRef nodeRef) {
+        NodeRef archivedRef = new NodeRef(StoreRef.STORE_REF_ARCHIVE_SPACESSTORE, nodeRef.getId());
+        return nodeService.exists(archivedRef) && dictionaryService.isSubClass(nodeService.getType(archivedRef), TYPE_WHITEPAPER);
+    }
+
+    private boolean canRead(final NodeRef nodeRef, String caller) {
+        return AuthenticationUtil.runAs(
+                () -> permissionService.hasPermission(nodeRef, PermissionService.READ) == AccessStatus.ALLOWED, caller);
+    }
+
+    private static Map<String, Object> removed(NodeRef nodeRef) {
+        Map<String, Object> change = new HashMap<String, Object>();
+        change.put("id", nodeRef.getId());
+        change.put("action", "remove");
+        return change;
+    }
+
+    /**
+     * Returns the NodeRef of the Whitepapers folder, or null if it does not
+     * exist. Must be called as a user who can read the folders on the path.
+     */
+    private NodeRef getWhitepapersFolder() {
+        NodeRef nodeRef = repositoryHelper.getCompanyHome();
+        for (String name : whitepapersPath) {
+            nodeRef = nodeService.getChildByName(nodeRef, ContentModel.ASSOC_CONTAINS, name);
+            if (nodeRef == null) {
+                return null;
+            }
+        }
+        return nodeRef;
+    }
+
+    private static String encodeToken(long commitTime) {
+        return Long.toString(commitTime, TOKEN_RADIX);
+    }
+
+    private static long decodeToken(String token) {
+        try {
+            return Long.parseLong(token, TOKEN_RADIX);
+        } catch (NumberFormatException e) {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Invalid since token: " + token);
+        }
+    }
+
+    public SearchTrackingComponent getSearchTrackingComponent() {
+        return searchTrackingComponent;
+    }
+
+    public void setSearchTrackingComponent(SearchTrackingComponent searchTrackingComponent) {
+        this.searchTrackingComponent = searchTrackingComponent;
+    }
+
+    public NodeService getNodeService() {
+        return nodeService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public PermissionService getPermissionService() {
+        return permissionService;
+    }
+
+    public void setPermissionService(PermissionService permissionService) {
+        this.permissionService = permissionService;
+    }
+
+    public DictionaryService getDictionaryService() {
+        return dictionaryService;
+    }
+
+    public void setDictionaryService(DictionaryService dictionaryService) {
+        this.dictionaryService = dictionaryService;
+    }
+
+    public Repository getRepositoryHelper() {
+        return repositoryHelper;
+    }
+
+    public void setRepositoryHelper(Repository repositoryHelper) {
+        this.repositoryHelper = repositoryHelper;
+    }
+
+    public RatingSummaryCache getRatingSummaryCache() {
+        return ratingSummaryCache;
+    }
+
+    public void setRatingSummaryCache(RatingSummaryCache ratingSummaryCache) {
+        this.ratingSummaryCache = ratingSummaryCache;
+    }
+
+    public List<String> getWhitepapersPath() {
+        return whitepapersPath;
+    }
+
+    public void setWhitepapersPath(List<String> whitepapersPath) {
+        this.whitepapersPath = whitepapersPath;
+    }
+
+    public int getMaxTransactions() {
+        return maxTransactions;
+    }
+
+    public void setMaxTransactions(int maxTransactions) {
+        this.maxTransactions = maxTransactions;
+    }
+
+    public long getSettleTime() {
+        return settleTime;
+    }
+
+    public void setSettleTime(long settleTime) {
+        this.settleTime = settleTime;
+    }
+
+}
@@ -0,0 +1,558 @@
+package com.someco.scripts;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.model.Repository;
+import org.alfresco.repo.node.getchildren.FilterProp;
+import org.alfresco.repo.node.getchildren.FilterPropBoolean;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.LimitBy;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.log4j.Logger;
+import org.springframework.extensions.surf.util.I18NUtil;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import com.someco.beans.NodePrefetcher;
+import com.someco.beans.NodeSnapshot;
+import com.someco.behavior.ETagBuilder;
+import com.someco.behavior.RatingSummary;
+import com.someco.behavior.RatingSummaryCache;
+import com.someco.behavior.WhitepaperFeed;
+import com.someco.model.SomeCoModel;
+import com.someco.model.SomeCoRatingsModel;
+
+/**
+ * This is the controller for the whitepapers.get web script.
+ *
+ * Returns one page of active whitepapers, selected by the skipCount and
+ * maxItems arguments and ordered by the sort (published or rating) and dir
+ * (asc or desc) arguments. Only the requested page is loaded and the total
+ * number of matches is returned in the X-Total-Count header.
+ *
+ * Responses carry an ETag computed from the listed whitepapers, their
+ * modification dates and rating aggregates, and a Last-Modified date. A
+ * request whose If-None-Match header matches gets a 304 without the page
+ * being rendered.
+ *
+ * By default the whitepapers are found with a search limited to the
+ * requested page. Setting useCannedQuery lists the children of the
+ * Whitepapers folder with a canned query instead, which reads the database
+ * rather than the index; see {@link #listChildren} for what it costs. When a whitepaperFeed is set, listings by publication date
+ * are paged from that materialized feed, filtered to what the caller can
+ * read, while it holds every active whitepaper.
+ *
+ * The metadata of the whole page is loaded in bulk by the NodePrefetcher
+ * before the ETag is computed, and the response is rendered from those
+ * snapshots. The fields argument, a comma separated list such as
+ * "id,rating", limits the JSON entries to those fields, and only the
+ * properties they need are loaded.
+ *
+ * JSON responses are streamed entry by entry with a Jackson JsonGenerator.
+ * Other formats are rendered with the whitepapers.get templates. This extends
+ * AbstractWebScript rather than DeclarativeWebScript because the latter does
+ * not let the controller set response headers or write the response itself.
+ *
+ * @author jpotts
+ *
+ */
+public class GetWhitepapers extends AbstractWebScript {
+
+    public static final String HEADER_TOTAL_COUNT = "X-Total-Count";
+
+    private static final QName TYPE_WHITEPAPER = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.TYPE_SC_WHITEPAPER);
+    private static final QName PROP_IS_ACTIVE = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_IS_ACTIVE);
+    private static final QName PROP_PUBLISHED = QName.createQName(SomeCoModel.NAMESPACE_SOMECO_CONTENT_MODEL, SomeCoModel.PROP_PUBLISHED);
+    private static final QName PROP_AVERAGE_RATING = QName.createQName(SomeCoRatingsModel.NAMESPACE_SOMECO_RATINGS_CONTENT_MODEL, SomeCoRatingsModel.PROP_AVERAGE_RATING);
+
+    /** The JSON fields and the properties each of them is rendered from. */
+    private static final Map<String, QName[]> FIELD_PROPERTIES = new LinkedHashMap<String, QName[]>();
+    static {
+        FIELD_PROPERTIES.put("name", new QName[] { ContentModel.PROP_NAME });
+        FIELD_PROPERTIES.put("title", new QName[] { ContentModel.PROP_TITLE });
+        FIELD_PROPERTIES.put("link", new QName[0]);
+        FIELD_PROPERTIES.put("type", new QName[] { ContentModel.PROP_CONTENT });
+        FIELD_PROPERTIES.put("size", new QName[] { ContentModel.PROP_CONTENT });
+        FIELD_PROPERTIES.put("id", new QName[0]);
+        FIELD_PROPERTIES.put("description", new QName[] { ContentModel.PROP_DESCRIPTION });
+        FIELD_PROPERTIES.put("pubDate", new QName[] { ContentModel.PROP_MODIFIED });
+        FIELD_PROPERTIES.put("rating", new QName[0]);
+    }
+
+    private static final String DATETIME_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String QUERY = "PATH:\"/app:company_home/cm:Someco/cm:Whitepapers/*\" +TYPE:\"{http://www.someco.com/model/content/1.0}whitepaper\" +@sc\\:isActive:true";
+
+    Logger logger = Logger.getLogger(GetWhitepapers.class);
+
+    private SearchService searchService;
+    private NodeService nodeService;
+    private FileFolderService fileFolderService;
+    private Repository repositoryHelper;
+    private RatingSummaryCache ratingSummaryCache;
+    private WhitepaperFeed whitepaperFeed;
+    private NodePrefetcher nodePrefetcher;
+    private int defaultMaxItems = 50;
+    private int maxItemsLimit = 500;
+    private boolean useCannedQuery = false;
+    private List<String> whitepapersPath = Collections.emptyList();
+    private int totalCountMax = 10000;
+    private long maxAge = 60;
+
+    private volatile NodeRef whitepapersFolder;
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        int skipCount = getIntParameter(req, "skipCount", 0);
+        int maxItems = Math.min(getIntParameter(req, "maxItems", defaultMaxItems), maxItemsLimit);
+        String sort = req.getParameter("sort");
+        if (sort != null && !sort.equals("published") && !sort.equals("rating")) {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Unknown sort: " + sort);
+        }
+        boolean sortByRating = "rating".equals(sort);
+        boolean ascending = "asc".equals(req.getParameter("dir"));
+        Set<String> fields = getFields(req);
+
+        Pair<List<NodeRef>, Long> page = null;
+        if (whitepaperFeed != null && !sortByRating) {
+            // null when the feed does not hold every active whitepaper
+            page = whitepaperFeed.getPage(skipCount, maxItems, ascending);
+        }
+        if (page != null) {
+            logger.debug("Paged whitepapers from the feed");
+        } else if (useCannedQuery) {
+            page = listChildren(skipCount, maxItems, sortByRating, ascending);
+        } else {
+            page = search(skipCount, maxItems, sortByRating, ascending);
+        }
+        long totalItems = page.getSecond();
+
+        if (totalItems == 0) {
+            logger.debug("No whitepapers found");
+            throw new WebScriptException(Status.STATUS_NOT_FOUND, "No whitepapers found");
+        }
+        if (logger.isDebugEnabled()) logger.debug("Returning " + page.getFirst().size() + " of " + totalItems + " whitepapers");
+
+        String format = req.getFormat();
+        String mimetype = getContainer().getFormatRegistry().getMimeType(req.getAgent(), format);
+        if (mimetype == null) {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Unknown format: " + format);
+        }
+
+        boolean json = WebScriptResponse.JSON_FORMAT.equals(format);
+        Set<QName> propNames = null;
+        if (json) {
+            propNames = getPropertyNames(fields);
+            propNames.add(ContentModel.PROP_MODIFIED);
+        }
+        Map<NodeRef, NodeSnapshot> snapshots = nodePrefetcher.prefetch(page.getFirst(), propNames);
+
+        // the tag covers everything the response is rendered from
+        boolean withRating = !json || fields.contains("rating");
+        ETagBuilder etagBuilder = new ETagBuilder()
+                .add(format).add(skipCount).add(maxItems).add(sortByRating ? "rating" : "published").add(ascending ? "asc" : "desc")
+                .add(String.join(",", fields))
+                .add(totalItems);
+        for (NodeSnapshot snapshot : snapshots.values()) {
+            etagBuilder.add(snapshot.getId()).add(snapshot.getModified());
+            if (withRating) {
+                etagBuilder.add(ratingSummaryCache.get(snapshot.getNodeRef()));
+            }
+        }
+        String etag = etagBuilder.build();
+
+        Cache cache = new Cache(getDescription().getRequiredCache());
+        cache.setETag(etag);
+        cache.setLastModified(etagBuilder.getLastModified());
+        cache.setMaxAge(maxAge);
+
+        res.setHeader(HEADER_TOTAL_COUNT, Long.toString(totalItems));
+        res.setCache(cache);
+        if (ETagBuilder.matches(req.getHeader("If-None-Match"), etag)) {
+            logger.debug("Whitepapers not modified");
+            res.setStatus(Status.STATUS_NOT_MODIFIED);
+            return;
+        }
+
+        res.setContentType(mimetype + ";charset=UTF-8");
+        res.setContentEncoding("UTF-8");
+
+        if (json) {
+            writeJson(req, res, snapshots.values(), fields, totalItems, skipCount, maxItems);
+            return;
+        }
+
+        List<Map<String, Object>> whitepapers = new ArrayList<Map<String, Object>>(snapshots.size());
+        for (NodeSnapshot snapshot : snapshots.values()) {
+            Map<String, Object> entry = new HashMap<String, Object>();
+            entry.put("whitepaper", snapshot);
+            entry.put("rating", getRating(snapshot.getNodeRef()));
+            whitepapers.add(entry);
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("whitepapers", whitepapers);
+        model.put("totalItems", totalItems);
+        model.put("skipCount", skipCount);
+        model.put("maxItems", maxItems);
+
+        renderTemplate(getDescription().getId() + "." + format + ".ftl", createTemplateParameters(req, res, model), res.getWriter());
+    }
+
+    /**
+     * Writes the page as JSON with the requested fields. The snapshots only
+     * hold the properties those fields are rendered from, and the rating
+     * summary is only read when the rating is requested.
+     */
+    protected void writeJson(WebScriptRequest req, WebScriptResponse res, Collection<NodeSnapshot> snapshots, Set<String> fields,
+            long totalItems, int skipCount, int maxItems) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(DATETIME_FORMAT, I18NUtil.getLocale());
+        DecimalFormat numberFormat = new DecimalFormat("0.###", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+        String serviceContext = req.getServiceContextPath();
+
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(res.getWriter())) {
+            json.writeStartObject();
+
+            json.writeObjectFieldStart("paging");
+            json.writeNumberField("totalItems", totalItems);
+            json.writeNumberField("skipCount", skipCount);
+            json.writeNumberField("maxItems", maxItems);
+            json.writeEndObject();
+
+            json.writeArrayFieldStart("whitepapers");
+            for (NodeSnapshot snapshot : snapshots) {
+
+                json.writeStartObject();
+                for (String field : fields) {
+                    switch (field) {
+                    case "name":
+                        json.writeStringField("name", snapshot.getName());
+                        break;
+                    case "title":
+                        json.writeStringField("title", snapshot.getTitle());
+                        break;
+                    case "link":
+                        json.writeStringField("link", serviceContext + "/api/node/workspace/SpacesStore/" + snapshot.getId() + "/content");
+                        break;
+                    case "type":
+                        json.writeStringField("type", snapshot.getMimetype());
+                        break;
+                    case "size":
+                        json.writeStringField("size", Long.toString(snapshot.getSize()));
+                        break;
+                    case "id":
+                        json.writeStringField("id", snapshot.getId());
+                        break;
+                    case "description":
+                        json.writeStringField("description", snapshot.getDescription());
+                        break;
+                    case "pubDate":
+                        Date modified = snapshot.getModified();
+                        json.writeStringField("pubDate", modified == null ? "" : dateFormat.format(modified));
+                        break;
+                    case "rating":
+                        RatingSummary summary = ratingSummaryCache.get(snapshot.getNodeRef());
+                        json.writeObjectFieldStart("rating");
+                        json.writeStringField("average", summary == null ? "0" : numberFormat.format(summary.getAverage()));
+                        json.writeStringField("count", summary == null ? "0" : Integer.toString(summary.getCount()));
+                        json.writeEndObject();
+                        break;
+                    }
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+
+            json.writeEndObject();
+        }
+    }
+
+    private static Set<QName> getPropertyNames(Set<String> fields) {
+        Set<QName> propNames = new LinkedHashSet<QName>();
+        for (String field : fields) {
+            Collections.addAll(propNames, FIELD_PROPERTIES.get(field));
+        }
+        return propNames;
+    }
+
+    /**
+     * Returns the fields named by the fields argument in the order they are
+     * always rendered in, or every field if the argument is not set.
+     */
+    private static Set<String> getFields(WebScriptRequest req) {
+        String value = req.getParameter("fields");
+        if (value == null || value.trim().isEmpty()) {
+            return FIELD_PROPERTIES.keySet();
+        }
+        Set<String> requested = new HashSet<String>();
+        for (String field : value.split(",")) {
+            field = field.trim();
+            if (!FIELD_PROPERTIES.containsKey(field)) {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Unknown field: " + field);
+            }
+            requested.add(field);
+        }
+        Set<String> fields = new LinkedHashSet<String>();
+        for (String field : FIELD_PROPERTIES.keySet()) {
+            if (requested.contains(field)) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Pages through the active whitepapers in the Whitepapers folder with a
+     * canned child query, which reads the database rather than the index.
+     * The total is exact up to totalCountMax.
+     *
+     * Only the type restriction is applied by the database. sc:isActive and
+     * sc:published (or scr:averageRating) are not cm: properties, so the
+     * canned query loads every whitepaper in the folder and filters and
+     * sorts them in memory before cutting out the page. The cost of each
+     * request grows with the size of the folder, not the page.
+     */
+    protected Pair<List<NodeRef>, Long> listChildren(int skipCount, int maxItems, boolean sortByRating, boolean ascending) {
+        NodeRef folder = getWhitepapersFolder();
+        if (folder == null) {
+            logger.debug("Whitepapers folder not found");
+            return new Pair<List<NodeRef>, Long>(Collections.<NodeRef>emptyList(), 0L);
+        }
+
+        List<FilterProp> filterProps = new ArrayList<FilterProp>(1);
+        filterProps.add(new FilterPropBoolean(PROP_IS_ACTIVE, Boolean.TRUE));
+        List<Pair<QName, Boolean>> sortProps = new ArrayList<Pair<QName, Boolean>>(1);
+        sortProps.add(new Pair<QName, Boolean>(sortByRating ? PROP_AVERAGE_RATING : PROP_PUBLISHED, ascending));
+
+        PagingRequest pagingRequest = new PagingRequest(skipCount, maxItems);
+        pagingRequest.setRequestTotalCountMax(totalCountMax);
+
+        PagingResults<FileInfo> results = fileFolderService.list(folder,
+                Collections.singleton(ContentModel.ASSOC_CONTAINS),
+                Collections.singleton(TYPE_WHITEPAPER),
+                null, sortProps, filterProps, pagingRequest);
+
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>(results.getPage().size());
+        for (FileInfo fileInfo : results.getPage()) {
+            nodeRefs.add(fileInfo.getNodeRef());
+        }
+        Pair<Integer, Integer> totalCount = results.getTotalResultCount();
+        long totalItems = totalCount == null || totalCount.getFirst() == null ? skipCount + nodeRefs.size() : totalCount.getFirst();
+        return new Pair<List<NodeRef>, Long>(nodeRefs, totalItems);
+    }
+
+    /**
+     * Finds the active whitepapers with a search, loading only the requested
+     * page of results.
+     */
+    protected Pair<List<NodeRef>, Long> search(int skipCount, int maxItems, boolean sortByRating, boolean ascending) {
+        SearchParameters sp = new SearchParameters();
+        sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        sp.setLanguage(SearchService.LANGUAGE_LUCENE);
+        sp.setQuery(QUERY);
+        sp.setSkipCount(skipCount);
+        sp.setMaxItems(maxItems);
+        sp.setLimitBy(LimitBy.FINAL_SIZE);
+        sp.setLimit(maxItems);
+        sp.addSort("@" + (sortByRating ? PROP_AVERAGE_RATING : PROP_PUBLISHED), ascending);
+
+        ResultSet results = searchService.query(sp);
+        try {
+            return new Pair<List<NodeRef>, Long>(new ArrayList<NodeRef>(results.getNodeRefs()), results.getNumberFound());
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * Returns the NodeRef of the Whitepapers folder, resolving it by name from
+     * Company Home the first time and whenever the cached folder is gone.
+     */
+    protected NodeRef getWhitepapersFolder() {
+        NodeRef folder = whitepapersFolder;
+        if (folder != null && nodeService.exists(folder)) {
+            return folder;
+        }
+
+        folder = AuthenticationUtil.runAsSystem(() -> {
+            NodeRef nodeRef = repositoryHelper.getCompanyHome();
+            for (String name : whitepapersPath) {
+                nodeRef = nodeService.getChildByName(nodeRef, ContentModel.ASSOC_CONTAINS, name);
+                if (nodeRef == null) {
+                    return null;
+                }
+            }
+            return nodeRef;
+        });
+        if (logger.isDebugEnabled()) logger.debug("Resolved whitepapers folder: " + folder);
+        whitepapersFolder = folder;
+        return folder;
+    }
+
+    private Map<String, Object> getRating(NodeRef nodeRef) {
+        Map<String, Object> rating = new HashMap<String, Object>();
+        RatingSummary summary = ratingSummaryCache.get(nodeRef);
+        if (summary != null) {
+            rating.put("average", summary.getAverage());
+            rating.put("count", summary.getCount());
+        }
+        return rating;
+    }
+
+    private static int getIntParameter(WebScriptRequest req, String name, int defaultValue) {
+        String value = req.getParameter(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value);
+            if (intValue < 0) {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, name + " must not be negative");
+            }
+            return intValue;
+        } catch (NumberFormatException e) {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, name + " must be a number");
+        }
+    }
+
+    public SearchService getSearchService() {
+        return searchService;
+    }
+
+    public void setSearchService(SearchService searchService) {
+        this.searchService = searchService;
+    }
+
+    public NodeService getNodeService() {
+        return nodeService;
+    }
+
+    public void setNodeService(NodeService nodeService) {
+        this.nodeService = nodeService;
+    }
+
+    public FileFolderService getFileFolderService() {
+        return fileFolderService;
+    }
+
+    public void setFileFolderService(FileFolderService fileFolderService) {
+        this.fileFolderService = fileFolderService;
+    }
+
+    public Repository getRepositoryHelper() {
+        return repositoryHelper;
+    }
+
+    public void setRepositoryHelper(Repository repositoryHelper) {
+        this.repositoryHelper = repositoryHelper;
+    }
+
+    public RatingSummaryCache getRatingSummaryCache() {
+        return ratingSummaryCache;
+    }
+
+    public void setRatingSummaryCache(RatingSummaryCache ratingSummaryCache) {
+        this.ratingSummaryCache = ratingSummaryCache;
+    }
+
+    public WhitepaperFeed getWhitepaperFeed() {
+        return whitepaperFeed;
+    }
+
+    public void setWhitepaperFeed(WhitepaperFeed whitepaperFeed) {
+        this.whitepaperFeed = whitepaperFeed;
+    }
+
+    public NodePrefetcher getNodePrefetcher() {
+        return nodePrefetcher;
+    }
+
+    public void setNodePrefetcher(NodePrefetcher nodePrefetcher) {
+        this.nodePrefetcher = nodePrefetcher;
+    }
+
+    public int getDefaultMaxItems() {
+        return defaultMaxItems;
+    }
+
+    public void setDefaultMaxItems(int defaultMaxItems) {
+        this.defaultMaxItems = defaultMaxItems;
+    }
+
+    public int getMaxItemsLimit() {
+        return maxItemsLimit;
+    }
+
+    public void setMaxItemsLimit(int maxItemsLimit) {
+        this.maxItemsLimit = maxItemsLimit;
+    }
+
+    public boolean isUseCannedQuery() {
+        return useCannedQuery;
+    }
+
+    public void setUseCannedQuery(boolean useCannedQuery) {
+        this.useCannedQuery = useCannedQuery;
+    }
+
+    public List<String> getWhitepapersPath() {
+        return whitepapersPath;
+    }
+
+    public void setWhitepapersPath(List<String> whitepapersPath) {
+        this.whitepapersPath = whitepapersPath;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public int getTotalCountMax() {
+        return totalCountMax;
+    }
+
+    public void setTotalCountMax(int totalCountMax) {
+        this.totalCountMax = totalCountMax;
+    }
+
+}
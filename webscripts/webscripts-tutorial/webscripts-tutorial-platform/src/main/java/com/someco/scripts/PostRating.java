@@ -1,50 +1,90 @@
 package com.someco.scripts;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.transaction.TransactionService;
 import org.apache.log4j.Logger;
 import org.springframework.extensions.webscripts.DeclarativeWebScript;
 import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.someco.beans.RatingBean;
+import com.someco.beans.RatingItem;
 
 /**
  * This is the controller for the rating.post web script.
- * 
+ *
+ * Besides the single id/rating/user form, it accepts a JSON array or
+ * newline-delimited JSON body of {"id", "rating", "user"} objects. The body
+ * is read as a stream, in chunks of chunkSize ratings. Each chunk is stored
+ * in its own transaction with the ratings grouped by node, so the aggregates
+ * of a node are written once per chunk.
+ *
+ * Each rating gets its own status: 400 for missing data or an id that is not
+ * a node id, 404 for a node that does not exist. If the body cannot be read
+ * to the end, the ratings read up to that point are still stored, and the
+ * response lists their statuses along with the error.
+ *
  * @author jpotts
- * 
+ *
  */
 public class PostRating extends DeclarativeWebScript {
 
     Logger logger = Logger.getLogger(PostRating.class);
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     private RatingBean ratingBean;
     private NodeService nodeService;
+    private TransactionService transactionService;
+    private int chunkSize = 100;
 
     @Override
     protected Map<String, Object> executeImpl(WebScriptRequest req,
             Status status) {
-        String id = req.getParameter("id");
-        String rating = req.getParameter("rating");
-        String user = req.getParameter("user");
+        if (isBulkRequest(req)) {
+            return executeBulk(req, status);
+        }
+
+        final String id = req.getParameter("id");
+        final String rating = req.getParameter("rating");
+        final String user = req.getParameter("user");
 
         if (id == null || rating == null || rating.equals("0") || user == null) {
             logger.debug("ID, rating, or user not set");
             status.setCode(400, "Required data has not been provided");
             status.setRedirect(true);
+        } else if (toNodeRef(id) == null) {
+            logger.debug("Invalid id");
+            status.setCode(400, "Invalid node id:" + id);
+            status.setRedirect(true);
         } else {
             logger.debug("Getting current node");
-            NodeRef curNode = new NodeRef("workspace://SpacesStore/" + id);
-            if (!nodeService.exists(curNode)) {
+            final NodeRef curNode = toNodeRef(id);
+            boolean created = transactionService.getRetryingTransactionHelper().doInTransaction(() -> {
+                if (!nodeService.exists(curNode)) {
+                    return false;
+                }
+                ratingBean.create(curNode, Integer.parseInt(rating), user);
+                return true;
+            }, false, true);
+
+            if (!created) {
                 logger.debug("Node not found");
                 status.setCode(404, "No node found for id:" + id);
                 status.setRedirect(true);
             } else {
-                ratingBean.create(curNode, Integer.parseInt(rating), user);
                 logger.debug("Back from ratingBean.create()");
             }
 
@@ -59,6 +99,131 @@ public class PostRating extends DeclarativeWebScript {
         return model;
     }
 
+    private boolean isBulkRequest(WebScriptRequest req) {
+        String contentType = req.getContentType();
+        return req.getParameter("id") == null && contentType != null
+                && (contentType.startsWith("application/json") || contentType.startsWith("application/x-ndjson"));
+    }
+
+    private Map<String, Object> executeBulk(WebScriptRequest req, Status status) {
+        List<RatingItem> results = new ArrayList<RatingItem>();
+        List<RatingItem> chunk = new ArrayList<RatingItem>(chunkSize);
+        String error = null;
+
+        try (MappingIterator<JsonNode> entries = MAPPER.readerFor(JsonNode.class).readValues(req.getContent().getInputStream())) {
+            int index = 0;
+            while (entries.hasNextValue()) {
+                JsonNode entry = entries.nextValue();
+                RatingItem item = new RatingItem(index++,
+                        entry.path("id").asText(null),
+                        entry.path("rating").asInt(0),
+                        entry.path("user").asText(null));
+                results.add(item);
+
+                if (!item.isValid()) {
+                    item.setOutcome(400, "Required data has not been provided");
+                    continue;
+                }
+                if (toNodeRef(item.getId()) == null) {
+                    item.setOutcome(400, "Invalid node id:" + item.getId());
+                    continue;
+                }
+
+                chunk.add(item);
+                if (chunk.size() == chunkSize) {
+                    storeChunk(chunk);
+                    chunk = new ArrayList<RatingItem>(chunkSize);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to read rating entry " + results.size(), e);
+            error = "Malformed rating entry at index " + results.size() + ": " + e.getMessage();
+            status.setCode(400, error);
+        }
+
+        if (!chunk.isEmpty()) {
+            storeChunk(chunk);
+        }
+
+        if (logger.isDebugEnabled()) logger.debug("Processed " + results.size() + " rating(s)");
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("results", results);
+        if (error != null) {
+            // the entries before the bad one were stored, so report them too
+            model.put("error", error);
+        }
+        return model;
+    }
+
+    /**
+     * Stores one chunk of ratings in a single transaction. If the transaction
+     * fails, each node's ratings are retried in their own transaction so that
+     * one bad node does not fail the whole chunk.
+     */
+    private void storeChunk(List<RatingItem> chunk) {
+        final Map<String, List<RatingItem>> byNode = new LinkedHashMap<String, List<RatingItem>>();
+        for (RatingItem item : chunk) {
+            List<RatingItem> items = byNode.get(item.getId());
+            if (items == null) {
+                items = new ArrayList<RatingItem>();
+                byNode.put(item.getId(), items);
+            }
+            items.add(item);
+        }
+
+        RetryingTransactionHelper txnHelper = transactionService.getRetryingTransactionHelper();
+        try {
+            txnHelper.doInTransaction(() -> {
+                for (Map.Entry<String, List<RatingItem>> entry : byNode.entrySet()) {
+                    storeNodeRatings(entry.getKey(), entry.getValue());
+                }
+                return null;
+            }, false, true);
+        } catch (RuntimeException e) {
+            logger.debug("Chunk of " + chunk.size() + " rating(s) failed, retrying per node", e);
+            for (final Map.Entry<String, List<RatingItem>> entry : byNode.entrySet()) {
+                try {
+                    txnHelper.doInTransaction(() -> {
+                        storeNodeRatings(entry.getKey(), entry.getValue());
+                        return null;
+                    }, false, true);
+                } catch (RuntimeException nodeException) {
+                    for (RatingItem item : entry.getValue()) {
+                        item.setOutcome(500, nodeException.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void storeNodeRatings(String id, List<RatingItem> items) {
+        NodeRef curNode = toNodeRef(id);
+        if (curNode == null || !nodeService.exists(curNode)) {
+            for (RatingItem item : items) {
+                item.setOutcome(404, "No node found for id:" + id);
+            }
+            return;
+        }
+
+        ratingBean.createAll(curNode, items);
+        for (RatingItem item : items) {
+            item.setOutcome(200, null);
+        }
+    }
+
+    /**
+     * Returns the node reference for a node id in the SpacesStore, or null if
+     * the id cannot be one.
+     */
+    static NodeRef toNodeRef(String id) {
+        if (id == null || id.isEmpty() || id.indexOf('/') != -1) {
+            return null;
+        }
+        String nodeRef = "workspace://SpacesStore/" + id;
+        return NodeRef.isNodeRef(nodeRef) ? new NodeRef(nodeRef) : null;
+    }
+
     public NodeService getNodeService() {
         return nodeService;
     }
@@ -75,4 +240,20 @@ public class PostRating extends DeclarativeWebScript {
         this.ratingBean = ratingBean;
     }
 
+    public TransactionService getTransactionService() {
+        return transactionService;
+    }
+
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
 }
@@ -1,46 +1,144 @@
 var NUMBER_OF_STARS = 5;
-function init_rating() {
-    var ratings = document.getElementsByTagName('div');
+var STAR_IMAGE_PATH = '/alfresco/images/someco/stars/rating_';
+var STAR_STATES = ['off', 'half', 'on'];
+
+/*
+ * Turns every rating div on the page into a row of star images. When a
+ * payload from the rating-batch web script is passed in, each widget takes
+ * its star states from it by node id; otherwise the average in the div's
+ * text is used. Hover effects are handled by one listener on the document
+ * rather than by handlers on every star.
+ */
+function init_rating(batch) {
+    var ratings = document.querySelectorAll('div.rating');
     for (var i = 0; i < ratings.length; i++) {
-        if (ratings[i].className != 'rating')
-            continue;
-            
-        var rating = ratings[i].firstChild.nodeValue;
-        ratings[i].removeChild(ratings[i].firstChild);
-        if (rating > NUMBER_OF_STARS || rating < 0)
+        var widgetId = ratings[i].getAttribute('id').substr(7);
+        var states;
+        if (batch && batch.ratings && batch.ratings[widgetId]) {
+            states = batch.ratings[widgetId][0];
+        } else {
+            states = star_states(parseFloat(ratings[i].textContent));
+        }
+        if (states == null)
             continue;
-        for (var j = 1; j <= NUMBER_OF_STARS; j++) {
-            var star = document.createElement('img');
-            if (rating >= 1) {
-                star.setAttribute('src', '/alfresco/images/someco/stars/rating_on.gif');
-                star.className = 'on';
-                rating--;
-            } else if(rating > 0 && rating < 1) {
-                star.setAttribute('src', '/alfresco/images/someco/stars/rating_half.gif');
-                star.className = 'half';
-                rating = 0;
-            } else {
-                star.setAttribute('src', '/alfresco/images/someco/stars/rating_off.gif');
-                star.className = 'off';
+        render_stars(ratings[i], widgetId, states);
+    }
+    observe_hover();
+}
+
+/*
+ * Fetches the ratings of every rating div on the page in one request and
+ * renders the widgets from the result. The ids are posted, so the request
+ * stays valid however many widgets there are.
+ */
+function load_ratings(serviceContext, callback) {
+    var ratings = document.querySelectorAll('div.rating');
+    var ids = [];
+    for (var i = 0; i < ratings.length; i++) {
+        ids.push(ratings[i].getAttribute('id').substr(7));
+    }
+    if (ids.length == 0) {
+        return;
+    }
+
+    var req = new XMLHttpRequest();
+    req.open('POST', serviceContext + '/someco/ratings/batch?guest=true', true);
+    req.setRequestHeader('Content-Type', 'application/x-www-form-urlencoded');
+    req.onreadystatechange = function() {
+        if (req.readyState != 4)
+            return;
+        var batch = null;
+        if (req.status == 200) {
+            try {
+                batch = JSON.parse(req.responseText);
+            } catch (e) {
+                batch = null;
             }
-            var widgetId = ratings[i].getAttribute('id').substr(7);
-            star.setAttribute('id', 'star_'+widgetId+'_'+j);
-            star.onmouseover = new Function("evt", "displayHover('"+widgetId+"', "+j+");");
-            star.onmouseout = new Function("evt", "displayNormal('"+widgetId+"', "+j+");");
-            ratings[i].appendChild(star);
-        } 
+        }
+        init_rating(batch);
+        if (callback)
+            callback(batch);
+    };
+    req.send('ids=' + encodeURIComponent(ids.join(',')));
+}
+
+/*
+ * Calls handler(widgetId, starNumber, evt) when a star of any widget is
+ * clicked, using one listener on the document.
+ */
+function observe_rating_clicks(handler) {
+    document.addEventListener('click', function(evt) {
+        var star = rating_star(evt.target);
+        if (star)
+            handler(star.parentNode.getAttribute('id').substr(7), parseInt(star.getAttribute('data-star'), 10), evt);
+    }, false);
+}
+
+function star_states(rating) {
+    if (isNaN(rating) || rating > NUMBER_OF_STARS || rating < 0)
+        return null;
+    var states = '';
+    for (var j = 1; j <= NUMBER_OF_STARS; j++) {
+        if (rating >= 1) {
+            states += '2';
+            rating--;
+        } else if (rating > 0) {
+            states += '1';
+            rating = 0;
+        } else {
+            states += '0';
+        }
     }
+    return states;
+}
+
+function render_stars(widget, widgetId, states) {
+    var stars = document.createDocumentFragment();
+    for (var j = 1; j <= NUMBER_OF_STARS; j++) {
+        var status = STAR_STATES[states.charAt(j - 1)] || 'off';
+        var star = document.createElement('img');
+        star.setAttribute('src', STAR_IMAGE_PATH + status + '.gif');
+        star.setAttribute('id', 'star_' + widgetId + '_' + j);
+        star.setAttribute('data-star', j);
+        star.className = status;
+        stars.appendChild(star);
+    }
+    widget.textContent = '';
+    widget.appendChild(stars);
+}
+
+var ratingHoverObserved = false;
+function observe_hover() {
+    if (ratingHoverObserved)
+        return;
+    ratingHoverObserved = true;
+    document.addEventListener('mouseover', function(evt) {
+        var star = rating_star(evt.target);
+        if (star)
+            displayHover(star.parentNode.getAttribute('id').substr(7), parseInt(star.getAttribute('data-star'), 10));
+    }, false);
+    document.addEventListener('mouseout', function(evt) {
+        var star = rating_star(evt.target);
+        if (star)
+            displayNormal(star.parentNode.getAttribute('id').substr(7), parseInt(star.getAttribute('data-star'), 10));
+    }, false);
+}
+
+function rating_star(element) {
+    if (element && element.tagName == 'IMG' && element.parentNode && element.parentNode.className == 'rating')
+        return element;
+    return null;
 }
 
 function displayHover(ratingId, star) {
     for (var i = 1; i <= star; i++) {
-        document.getElementById('star_'+ratingId+'_'+i).setAttribute('src', '/alfresco/images/someco/stars/rating_over.gif');
+        document.getElementById('star_'+ratingId+'_'+i).setAttribute('src', STAR_IMAGE_PATH + 'over.gif');
     }
 }
 
 function displayNormal(ratingId, star) {
     for (var i = 1; i <= star; i++) {
         var status = document.getElementById('star_'+ratingId+'_'+i).className;
-        document.getElementById('star_'+ratingId+'_'+i).setAttribute('src', '/alfresco/images/someco/stars/rating_'+status+'.gif');
+        document.getElementById('star_'+ratingId+'_'+i).setAttribute('src', STAR_IMAGE_PATH + status + '.gif');
     }
 }
@@ -1,3 +1,4 @@
+<#if !(notModified!false)>
 <html>
     <head>
         <script src="${url.context}/scripts/someco/prototype.js" type="text/javascript"></script>
@@ -6,18 +7,10 @@
     <body>
         <script type="text/javascript">
             function initEvents() {
-                init_rating();
-
-                $$('.rating').each(function(n){
-                n.immediateDescendants().each(function(c){
-                    Event.observe(c, 'click', submitRating);
-                    });
-                });
+                load_ratings("${url.serviceContext}");
+                observe_rating_clicks(submitRating);
             }
-            function submitRating(evt) {
-                var tmp = Event.element(evt).getAttribute('id').substr(5);
-                var widgetId = tmp.substr(0, tmp.indexOf('_'));
-                var starNbr = tmp.substr(tmp.indexOf('_')+1);
+            function submitRating(widgetId, starNbr, evt) {
                 if (document.login.userId.value != undefined && document.login.userId.value != "") {
                     curUser = document.login.userId.value;
                 } else {
@@ -74,6 +67,12 @@
         <p>Node: ${args.id}</p>
         <p>Average: ${rating.average!''}</p>
         <p># of Ratings: ${rating.count!''}</p>
+        <p>Weighted score: ${rating.weightedScore!''}</p>
+        <#if rating.distribution?has_content>
+            <p>Distribution:
+            <#list rating.distribution as stars>${stars_index + 1} star: ${stars}<#if stars_has_next>, </#if></#list>
+            </p>
+        </#if>
         <#if (rating.user > 0)>
             <p>User rating: ${rating.user!''}</p>
         </#if>
@@ -84,3 +83,4 @@
         <p><a href="#" onclick=deleteRatings("${args.id}")>Delete ratings</a> for this node</p>
     </body>
 </html>
+</#if>
@@ -14,7 +14,14 @@ if (args.id == null || args.id.length == 0) {
 		status.message = "No node found for id:" + args.id;
 		status.redirect = true;
 	} else {
-		logger.log("Setting model rating data");
-		model.rating = getRating(curNode, args.user);
+		var etag = scRatings.setCacheValidators(cache, curNode, args.user);
+		if (scRatings.matchesETag(headers["If-None-Match"], etag)) {
+			logger.log("Rating not modified");
+			status.code = 304;
+			model.notModified = true;
+		} else {
+			logger.log("Setting model rating data");
+			model.rating = getRating(curNode, args.user);
+		}
 	}
 }
@@ -1,7 +1,11 @@
+<#if !(notModified!false)>
 {"rating" :
         {
          "average" : "${rating.average!''}",
          "count" : "${rating.count!''}",
+         "distribution" : [<#list rating.distribution as stars>${stars?c}<#if stars_has_next>, </#if></#list>],
+         "weightedScore" : "${rating.weightedScore!''}",
          "user" : "${rating.user!''}"
         }
 }
+</#if>
@@ -1,9 +1,26 @@
 <html>
     <body>
+    <#if results??>
+        <#if error??><p>${error?html}</p></#if>
+        <p>Processed ${results?size} rating(s):</p>
+        <table>
+            <tr><th>#</th><th>Node</th><th>Rating</th><th>User</th><th>Status</th></tr>
+            <#list results as result>
+            <tr>
+                <td>${result.index}</td>
+                <td>${result.id!''}</td>
+                <td>${result.rating}</td>
+                <td>${result.user!''}</td>
+                <td>${result.status}<#if result.message??> ${result.message}</#if></td>
+            </tr>
+            </#list>
+        </table>
+    <#else>
         <p>Successfully added rating:</p>
         <p>Node:${node}</p>
         <p>Rating:${rating}</p>
         <p>User:${user}</p>
         <p><a href="${url.service}?id=${node}">Show rating</a></p>
+    </#if>
     </body>
 </html>
\ No newline at end of file
@@ -1,7 +1,25 @@
+<#if results??>
+{<#if error??>"error" : "${error?json_string}",
+ </#if>"ratings" :
+    [
+    <#list results as result>
+        {
+         "index" : ${result.index?c},
+         "node" : "${(result.id!'')?json_string}",
+         "rating" : "${result.rating?c}",
+         "user" : "${(result.user!'')?json_string}",
+         "status" : ${result.status?c}<#if result.message??>,
+         "message" : "${result.message?json_string}"</#if>
+        }<#if result_has_next>,</#if>
+    </#list>
+    ]
+}
+<#else>
 {"rating" : 
         {
          "node" : "${node}",
          "rating" : "${rating}",
          "user" : "${user}"
         }
-}
\ No newline at end of file
+}
+</#if>
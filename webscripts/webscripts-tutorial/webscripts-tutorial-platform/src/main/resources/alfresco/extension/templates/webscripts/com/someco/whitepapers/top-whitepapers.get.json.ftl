@@ -0,0 +1,17 @@
+{<#if product??>"product" : "${product?json_string}",
+ </#if>"whitepapers" :
+    [
+    <#list whitepapers as whitepaper>
+        {
+         "id" : "${whitepaper.id}",
+         "name" : "${whitepaper.name?json_string}",
+         "title" : "${(whitepaper.title!'')?json_string}",
+         "rating" :
+            {
+             "average" : "${whitepaper.average}",
+             "count" : "${whitepaper.count?c}"
+            }
+        }<#if whitepaper_has_next>,</#if>
+    </#list>
+    ]
+}
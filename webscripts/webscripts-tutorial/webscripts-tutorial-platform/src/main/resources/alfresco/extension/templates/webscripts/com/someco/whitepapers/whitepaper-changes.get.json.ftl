@@ -0,0 +1,21 @@
+<#assign datetimeformat="EEE, dd MMM yyyy HH:mm:ss zzz">
+{"token" : "${token}",
+ "hasMore" : ${hasMore?string},
+ "changes" :
+    [
+    <#list changes as change>
+        {
+         "id" : "${change.id}",
+         "action" : "${change.action}"<#if change.action == "upsert">,
+         "name" : "${change.name?json_string}",
+         "title" : "${(change.title!'')?json_string}",
+         "pubDate" : "<#if change.modified??>${change.modified?string(datetimeformat)}</#if>",
+         "rating" :
+            {
+             "average" : "${change.ratingAverage}",
+             "count" : "${change.ratingCount?c}"
+            }</#if>
+        }<#if change_has_next>,</#if>
+    </#list>
+    ]
+}
@@ -1,16 +1,19 @@
 <#assign datetimeformat="EEE, dd MMM yyyy HH:mm:ss zzz">
 <html>
-    <body>
+    <head>
+        <script src="${url.context}/scripts/someco/rating-script.js" type="text/javascript"></script>
+    </head>
+    <body onload="load_ratings('${url.serviceContext}')">
         <h3>Whitepapers</h3>
         <table>
             <#list whitepapers as child>
                 <tr>
                     <td><b>Name</b></td>
-                    <td>${child.whitepaper.properties.name}</td>
+                    <td>${child.whitepaper.name?html}</td>
                 </tr>
                 <tr>
                     <td><b>Title</b></td>
-                    <td>${child.whitepaper.properties["cm:title"]!""}</td>
+                    <td>${child.whitepaper.title?html}</td>
                 </tr>
                 <tr>
                     <td><b>Link</b></td>
@@ -22,7 +25,7 @@
                 </tr>
                 <tr>
                     <td><b>Size</b></td>
-                    <td>${child.whitepaper.size}</td>
+                    <td>${child.whitepaper.size?c}</td>
                 </tr>
                 <tr>
                     <td><b>Id</b></td>
@@ -30,14 +33,12 @@
                 </tr>
                 <tr>
                     <td><b>Description</b></td>
-                    <td><p><#if child.whitepaper.properties["cm:description"]?exists
-                && child.whitepaper.properties["cm:description"] !=
-                "">${child.whitepaper.properties["cm:description"]}</#if></p>
+                    <td><p>${child.whitepaper.description?html}</p>
                     </td>
                 </tr>
                 <tr>
                     <td><b>Pub Date</b></td>
-                    <td>${child.whitepaper.properties["cm:modified"]?string(datetimeformat)}</td>
+                    <td>${child.whitepaper.modified?string(datetimeformat)}</td>
                 </tr>
                 <tr>
                     <td><b><a href="${url.serviceContext}/someco/rating.html?id=${child.whitepaper.id}&guest=true">Ratings</a></b></td>
@@ -51,15 +52,20 @@
                                 <td><b>Count</b></td>
                                 <td>${child.rating.count!"0"}</td>
                             </tr>
+                            <tr>
+                                <td><b>Stars</b></td>
+                                <td><div class="rating" id="rating_${child.whitepaper.id}" style="display:inline">${child.rating.average!"0"}</div></td>
+                            </tr>
                         </table>
                     </td>
                 </tr>
-                <#if !(child.whitepaper == whitepapers?last.whitepaper)>
+                <#if child_has_next>
                     <tr>
                         <td colspan="2" bgcolor="999999">&nbsp;</td>
                     </tr>
                 </#if>
             </#list>
         </table>
+        <p>Showing ${skipCount + 1} to ${skipCount + whitepapers?size} of ${totalItems}</p>
     </body>
 </html>